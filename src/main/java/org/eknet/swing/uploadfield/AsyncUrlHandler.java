@@ -0,0 +1,61 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link UrlHandler} that creates its image asynchronously, for example
+ * using non-blocking I/O like {@link java.nio.channels.AsynchronousFileChannel}.
+ * <p/>
+ * Async and blocking handlers can be mixed. When asking for an image, the
+ * handlers are still tried in order. The upload fields and the {@link IconsList}
+ * request images asynchronously, so no loader thread is occupied while an
+ * async handler is working: the blocking handlers that follow it are
+ * continued on a loader thread once its future completes. Only callers of the
+ * blocking handler list methods, like the preview of the file chooser, wait
+ * for the future.
+ * <p/>
+ * The blocking {@link #createImage(java.net.URL)} is not used, the handler
+ * list always calls {@link #createImageAsync(java.net.URL, java.awt.Dimension)}.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 17:35
+ */
+public interface AsyncUrlHandler extends UrlHandler {
+
+  /**
+   * Starts creating an image from the specified url that is used to create a
+   * preview of at most {@code maxSize}. The future completes with {@code null},
+   * if this handler cannot create an image of the url. It should not block the
+   * calling thread.
+   * <p/>
+   * The future may be cancelled, if the image is not needed anymore.
+   *
+   * @param url
+   * @param maxSize
+   * @return
+   */
+  @NotNull
+  CompletableFuture<BufferedImage> createImageAsync(@NotNull URL url, @NotNull Dimension maxSize);
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An algorithm to compute a {@link ContentHash} from the bytes of a
+ * resource. Either a {@link MessageDigest}, or the fast, but not
+ * collision resistant {@link #CRC32}.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 20:40
+ */
+public abstract class ContentDigest {
+
+  public static final ContentDigest SHA256 = messageDigest("SHA-256");
+
+  public static final ContentDigest CRC32 = new ContentDigest("CRC32", false) {
+    @Override
+    Hasher newHasher() {
+      final CRC32 crc = new CRC32();
+      return new Hasher() {
+        @Override
+        public void update(ByteBuffer buffer) {
+          crc.update(buffer);
+        }
+
+        @Override
+        public void update(byte[] data, int off, int len) {
+          crc.update(data, off, len);
+        }
+
+        @Override
+        void update(byte b) {
+          crc.update(b);
+        }
+
+        @Override
+        void clear() {
+          crc.reset();
+        }
+
+        @Override
+        byte[] digest() {
+          long value = crc.getValue();
+          return new byte[] {
+                  (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+          };
+        }
+      };
+    }
+  };
+
+  private final String algorithm;
+  private final boolean cryptographic;
+
+  private ContentDigest(String algorithm, boolean cryptographic) {
+    this.algorithm = algorithm;
+    this.cryptographic = cryptographic;
+  }
+
+  /**
+   * Creates a digest that uses the {@link MessageDigest} of the given name.
+   *
+   * @param algorithm
+   * @return
+   * @throws IllegalArgumentException if the algorithm is not available
+   */
+  @NotNull
+  public static ContentDigest messageDigest(@NotNull final String algorithm) {
+    try {
+      MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException("Digest algorithm not available: " + algorithm, e);
+    }
+    return new ContentDigest(algorithm, true) {
+      @Override
+      Hasher newHasher() {
+        final MessageDigest md;
+        try {
+          md = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+          throw new IllegalStateException(e);
+        }
+        return new Hasher() {
+          @Override
+          public void update(ByteBuffer buffer) {
+            md.update(buffer);
+          }
+
+          @Override
+          public void update(byte[] data, int off, int len) {
+            md.update(data, off, len);
+          }
+
+          @Override
+          void update(byte b) {
+            md.update(b);
+          }
+
+          @Override
+          void clear() {
+            md.reset();
+          }
+
+          @Override
+          byte[] digest() {
+            return md.digest();
+          }
+        };
+      }
+    };
+  }
+
+  @NotNull
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * Whether different contents practically never have the same hash,
+   * so that the hash can be used to identify the content.
+   *
+   * @return
+   */
+  public boolean isCryptographic() {
+    return cryptographic;
+  }
+
+  abstract Hasher newHasher();
+
+  @Override
+  public String toString() {
+    return algorithm;
+  }
+
+  /**
+   * Consumes the bytes of one resource.
+   */
+  abstract class Hasher {
+    private long size;
+
+    public void add(ByteBuffer buffer) {
+      size += buffer.remaining();
+      update(buffer);
+    }
+
+    public void add(byte[] data, int off, int len) {
+      size += len;
+      update(data, off, len);
+    }
+
+    public void add(byte b) {
+      size++;
+      update(b);
+    }
+
+    abstract void update(ByteBuffer buffer);
+
+    abstract void update(byte[] data, int off, int len);
+
+    abstract void update(byte b);
+
+    abstract void clear();
+
+    abstract byte[] digest();
+
+    /**
+     * Forgets all bytes added so far.
+     */
+    public void reset() {
+      size = 0;
+      clear();
+    }
+
+    /**
+     * Returns the hash of all bytes added so far. The hasher must
+     * not be used afterwards.
+     *
+     * @return
+     */
+    public ContentHash finish() {
+      return new ContentHash(algorithm, digest(), size);
+    }
+  }
+}
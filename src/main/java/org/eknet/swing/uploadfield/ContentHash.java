@@ -0,0 +1,135 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The hash of the content of an upload, together with its size. It is
+ * computed while the content is read anyway, either when a remote resource
+ * is copied or when a local file is loaded.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 20:40
+ */
+public final class ContentHash {
+
+  private final String algorithm;
+  private final byte[] hash;
+  private final long size;
+
+  public ContentHash(@NotNull String algorithm, @NotNull byte[] hash, long size) {
+    this.algorithm = algorithm;
+    this.hash = hash.clone();
+    this.size = size;
+  }
+
+  /**
+   * Computes the hash of the given file.
+   *
+   * @param file
+   * @param digest
+   * @return
+   * @throws IOException
+   */
+  @NotNull
+  public static ContentHash of(@NotNull File file, @NotNull ContentDigest digest) throws IOException {
+    ContentDigest.Hasher hasher = digest.newHasher();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+      while (channel.read(buffer) != -1) {
+        buffer.flip();
+        hasher.add(buffer);
+        buffer.clear();
+      }
+    }
+    return hasher.finish();
+  }
+
+  @NotNull
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  @NotNull
+  public byte[] getHash() {
+    return hash.clone();
+  }
+
+  /**
+   * Whether the hash has been computed with a {@link ContentDigest#isCryptographic()
+   * cryptographic} digest. Otherwise, equal hashes do not mean equal contents.
+   *
+   * @return
+   */
+  public boolean isCryptographic() {
+    return !algorithm.equals(ContentDigest.CRC32.getAlgorithm());
+  }
+
+  /**
+   * The number of bytes that have been hashed.
+   *
+   * @return
+   */
+  public long getSize() {
+    return size;
+  }
+
+  @NotNull
+  public String getHex() {
+    StringBuilder buf = new StringBuilder(hash.length * 2);
+    for (byte b : hash) {
+      buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+      buf.append(Character.forDigit(b & 0xf, 16));
+    }
+    return buf.toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    ContentHash that = (ContentHash) o;
+
+    if (size != that.size) return false;
+    if (!algorithm.equals(that.algorithm)) return false;
+    if (!Arrays.equals(hash, that.hash)) return false;
+
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = algorithm.hashCode();
+    result = 31 * result + Arrays.hashCode(hash);
+    result = 31 * result + (int) (size ^ (size >>> 32));
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return algorithm + ":" + getHex();
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+/**
+ * Is notified about the progress of copying a resource to a local file.
+ * It is called on the copying thread, after each chunk.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 18:45
+ */
+public interface CopyProgressListener {
+
+  /**
+   * Called after another chunk has been copied.
+   *
+   * @param bytes the number of bytes copied so far
+   * @param total the total number of bytes or {@code -1} if unknown
+   * @param bytesPerSecond the average throughput so far
+   */
+  void progress(long bytes, long total, long bytesPerSecond);
+
+}
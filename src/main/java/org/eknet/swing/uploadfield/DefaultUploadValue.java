@@ -50,8 +50,10 @@ public class DefaultUploadValue implements Cloneable, Comparable<UploadValue>, U
   private String name;
 
   private BufferedImage image;
+  private ImageInfo imageInfo;
   private Icon icon;
   private File file;
+  private ContentHash contentHash;
   private String description;
 
   public DefaultUploadValue(URL resource, String name) {
@@ -68,8 +70,10 @@ public class DefaultUploadValue implements Cloneable, Comparable<UploadValue>, U
       this.name = value.getName();
       this.resource = value.getResource();
       this.image = value.getImage();
+      this.imageInfo = value.getImageInfo();
       this.icon = value.getIcon();
       this.file = value.getFile();
+      this.contentHash = value.getContentHash();
     }
   }
 
@@ -85,7 +89,9 @@ public class DefaultUploadValue implements Cloneable, Comparable<UploadValue>, U
   public void setResource(URL resource) {
     this.resource = resource;
     setImage(null);
+    setImageInfo(null);
     setFile(null);
+    setContentHash(null);
     setIcon(null);
   }
 
@@ -119,6 +125,16 @@ public class DefaultUploadValue implements Cloneable, Comparable<UploadValue>, U
     this.image = image;
   }
 
+  @Override
+  public ImageInfo getImageInfo() {
+    return imageInfo;
+  }
+
+  @Override
+  public void setImageInfo(@Nullable ImageInfo imageInfo) {
+    this.imageInfo = imageInfo;
+  }
+
   @Override
   public void setMissingIcon(int w, int h) {
     this.icon = new ImageIcon(Utils.getMissingImage(w, h));
@@ -134,6 +150,16 @@ public class DefaultUploadValue implements Cloneable, Comparable<UploadValue>, U
     this.file = file;
   }
 
+  @Override
+  public ContentHash getContentHash() {
+    return contentHash;
+  }
+
+  @Override
+  public void setContentHash(@Nullable ContentHash contentHash) {
+    this.contentHash = contentHash;
+  }
+
   @Override
   public Icon getIcon() {
     return icon;
@@ -170,8 +196,10 @@ public class DefaultUploadValue implements Cloneable, Comparable<UploadValue>, U
             "resource=" + resource +
             ", name='" + name + '\'' +
             ", image='" + (image != null) + '\'' +
+            ", imageInfo=" + imageInfo +
             ", icon='" + (icon != null) + "'" +
             ", file='" + (file != null) + "'" +
+            ", contentHash=" + contentHash +
             '}';
   }
 
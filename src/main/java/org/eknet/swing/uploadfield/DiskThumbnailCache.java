@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stores preview images as png files, so they survive application restarts.
+ * <p/>
+ * Only previews of local files are stored. The file name is a hash of the
+ * canonical file uri, its last-modified date and length, the preview size
+ * and the handlers that created the image. Images are written asynchronously
+ * and the least recently used files are deleted once the directory grows
+ * beyond the configured size.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 14:35
+ */
+public class DiskThumbnailCache {
+  private static final Logger log = LoggerFactory.getLogger(DiskThumbnailCache.class);
+
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  private static final String SUFFIX = ".png";
+
+  private static final FileFilter thumbnailFilter = new FileFilter() {
+    @Override
+    public boolean accept(File f) {
+      return f.isFile() && f.getName().endsWith(SUFFIX);
+    }
+  };
+
+  private final File directory;
+  private volatile long maxBytes;
+
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(Utils.daemonThreadFactory("thumbnail-writer"));
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public DiskThumbnailCache(@NotNull File directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Creates a cache in {@link #getDefaultDirectory()}.
+   */
+  public DiskThumbnailCache() {
+    this(getDefaultDirectory(), DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Returns the directory for thumbnails below the user's cache directory
+   * of the current platform.
+   *
+   * @return
+   */
+  @NotNull
+  public static File getDefaultDirectory() {
+    String os = System.getProperty("os.name", "").toLowerCase();
+    File base;
+    if (os.startsWith("windows") && System.getenv("LOCALAPPDATA") != null) {
+      base = new File(System.getenv("LOCALAPPDATA"));
+    } else if (os.startsWith("mac")) {
+      base = new File(System.getProperty("user.home"), "Library/Caches");
+    } else if (System.getenv("XDG_CACHE_HOME") != null) {
+      base = new File(System.getenv("XDG_CACHE_HOME"));
+    } else {
+      base = new File(System.getProperty("user.home"), ".cache");
+    }
+    return new File(base, "swing-uploadfield" + File.separator + "thumbnails");
+  }
+
+  @Nullable
+  BufferedImage get(@NotNull ThumbnailCache.Key key) {
+    if (!key.isLocal()) {
+      return null;
+    }
+    File file = fileFor(key);
+    if (file.isFile()) {
+      try {
+        BufferedImage image = ImageIO.read(file);
+        if (image != null) {
+          //keeps recently used thumbnails from being evicted
+          file.setLastModified(System.currentTimeMillis());
+          hits.incrementAndGet();
+          return image;
+        }
+      } catch (IOException e) {
+        log.warn("Unable to read cached thumbnail: " + file, e);
+      }
+      file.delete();
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  void put(@NotNull ThumbnailCache.Key key, @NotNull final BufferedImage image) {
+    if (!key.isLocal()) {
+      return;
+    }
+    final File file = fileFor(key);
+    writer.execute(new Runnable() {
+      @Override
+      public void run() {
+        write(file, image);
+        trim();
+      }
+    });
+  }
+
+  private void write(File file, BufferedImage image) {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      log.warn("Unable to create thumbnail directory: " + directory);
+      return;
+    }
+    File tmp = new File(directory, file.getName() + ".tmp");
+    try {
+      if (ImageIO.write(image, "png", tmp) && (file.delete() || !file.exists()) && tmp.renameTo(file)) {
+        return;
+      }
+    } catch (IOException e) {
+      log.warn("Unable to write thumbnail: " + file, e);
+    }
+    tmp.delete();
+  }
+
+  private void trim() {
+    File[] files = directory.listFiles(thumbnailFilter);
+    if (files == null) {
+      return;
+    }
+    long size = 0;
+    for (File f : files) {
+      size += f.length();
+    }
+    if (size <= maxBytes) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        long m1 = o1.lastModified();
+        long m2 = o2.lastModified();
+        return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < files.length && size > maxBytes; i++) {
+      long length = files[i].length();
+      if (files[i].delete()) {
+        size -= length;
+      }
+    }
+  }
+
+  private File fileFor(ThumbnailCache.Key key) {
+    return new File(directory, hash(key.toString()) + SUFFIX);
+  }
+
+  private static String hash(String str) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] bytes = digest.digest(str.getBytes("UTF-8"));
+      StringBuilder buf = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes) {
+        buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+        buf.append(Character.forDigit(b & 0xf, 16));
+      }
+      return buf.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("No support for SHA-1?!", e);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("No support for UTF-8?!", e);
+    }
+  }
+
+  /**
+   * Deletes all thumbnails in the cache directory.
+   */
+  public void clear() {
+    writer.execute(new Runnable() {
+      @Override
+      public void run() {
+        File[] files = directory.listFiles(thumbnailFilter);
+        if (files != null) {
+          for (File f : files) {
+            f.delete();
+          }
+        }
+      }
+    });
+  }
+
+  @NotNull
+  public File getDirectory() {
+    return directory;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+}
@@ -56,17 +56,31 @@ class FileOpenAction extends AbstractAction {
     JFileChooser fc = newFileChooser(path);
     if (fc.showOpenDialog(getSourceComponent(e)) == JFileChooser.APPROVE_OPTION) {
       if (fc.isMultiSelectionEnabled()) {
-        for (File f : fc.getSelectedFiles()) {
-          pushFileToComponent(f);
+        File[] files = fc.getSelectedFiles();
+        if (files.length > 0) {
+          prefs.put("FileOpenAction.lastLocation", files[files.length - 1].getAbsolutePath());
+          pushFilesToComponent(files);
         }
       } else {
+        prefs.put("FileOpenAction.lastLocation", fc.getSelectedFile().getAbsolutePath());
         pushFileToComponent(fc.getSelectedFile());
       }
     }
   }
 
+  /**
+   * Called with the selected files, if multi selection is enabled. This
+   * pushes each file one after the other to the component.
+   *
+   * @param files
+   */
+  protected void pushFilesToComponent(File[] files) {
+    for (File f : files) {
+      pushFileToComponent(f);
+    }
+  }
+
   private void pushFileToComponent(File f) {
-    prefs.put("FileOpenAction.lastLocation", f.getAbsolutePath());
     UploadValue old = component.getUploadValue();
     DefaultUploadValue current = null;
     current = old != null ? new DefaultUploadValue(old) : new DefaultUploadValue();
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Fetches http and https resources with a shared {@link HttpClient}.
+ * <p/>
+ * The client keeps connections alive and reuses them for further requests
+ * to the same host. If the server supports HTTP/2, concurrent requests are
+ * multiplexed over a single connection. The number of concurrent requests
+ * per host is limited, so that loading many values from one host does not
+ * flood it. Requests that exceed the limit wait until another request to
+ * that host has finished, that is until its body has been closed. If no
+ * request finishes within the request timeout, they fail with a
+ * {@link HttpTimeoutException}. So a thread must not send another request to
+ * a host while it holds an open body from that host, it would wait for
+ * itself until then.
+ * <p/>
+ * All fields and url handlers use the {@link #getDefault() default} fetcher
+ * for remote resources.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 22:40
+ */
+public class HttpFetcher {
+
+  public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 6;
+  public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(15);
+  public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+  private static HttpFetcher defaultFetcher;
+
+  private final HttpClient client;
+  private final int maxRequestsPerHost;
+  private final Duration requestTimeout;
+
+  private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+
+  /**
+   * @param maxRequestsPerHost how many requests to one host may run at the same time
+   * @param connectTimeout how long to wait for a connection
+   * @param requestTimeout how long to wait for the response headers
+   */
+  public HttpFetcher(int maxRequestsPerHost, @NotNull Duration connectTimeout, @NotNull Duration requestTimeout) {
+    if (maxRequestsPerHost <= 0) {
+      throw new IllegalArgumentException("At least one request per host must be allowed");
+    }
+    this.maxRequestsPerHost = maxRequestsPerHost;
+    this.requestTimeout = requestTimeout;
+    this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(connectTimeout)
+            .executor(Executors.newCachedThreadPool(Utils.daemonThreadFactory("http-fetcher")))
+            .build();
+  }
+
+  public HttpFetcher() {
+    this(DEFAULT_MAX_REQUESTS_PER_HOST, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+  }
+
+  /**
+   * Returns the fetcher that is used for all remote resources.
+   *
+   * @return
+   */
+  @NotNull
+  public static synchronized HttpFetcher getDefault() {
+    if (defaultFetcher == null) {
+      defaultFetcher = new HttpFetcher();
+    }
+    return defaultFetcher;
+  }
+
+  public static synchronized void setDefault(@NotNull HttpFetcher fetcher) {
+    defaultFetcher = fetcher;
+  }
+
+  /**
+   * Whether the url can be fetched with a {@link HttpFetcher}.
+   *
+   * @param url
+   * @return
+   */
+  public static boolean isSupported(@NotNull URL url) {
+    return url.getProtocol().equals("http") || url.getProtocol().equals("https");
+  }
+
+  public int getMaxRequestsPerHost() {
+    return maxRequestsPerHost;
+  }
+
+  /**
+   * Opens a stream to the content of the given resource. The stream
+   * must be closed to free the connection.
+   *
+   * @param url
+   * @return
+   * @throws IOException if the server does not respond with the content, see
+   * {@link Response#hasContent()}
+   */
+  @NotNull
+  public InputStream openStream(@NotNull URL url) throws IOException {
+    Response response = get(url, Collections.<String, String>emptyMap());
+    if (!response.hasContent()) {
+      response.close();
+      throw new HttpStatusException(url, response.getStatus());
+    }
+    return response.getBody();
+  }
+
+  /**
+   * Sends a GET request with the given additional headers. The body of the
+   * response must be closed to free the connection.
+   *
+   * @param url
+   * @param headers
+   * @return
+   * @throws IOException
+   */
+  @NotNull
+  public Response get(@NotNull URL url, @NotNull Map<String, String> headers) throws IOException {
+    HttpRequest.Builder request = newRequest(url).GET();
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      request.header(header.getKey(), header.getValue());
+    }
+    Semaphore permits = acquire(url);
+    try {
+      HttpResponse<InputStream> response = send(url, request.build(), HttpResponse.BodyHandlers.ofInputStream());
+      return new Response(response, new ReleasingInputStream(response.body(), permits));
+    } catch (IOException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Sends a HEAD request. The returned response has an empty body.
+   *
+   * @param url
+   * @return
+   * @throws IOException
+   */
+  @NotNull
+  public Response head(@NotNull URL url) throws IOException {
+    HttpRequest request = newRequest(url).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+    Semaphore permits = acquire(url);
+    try {
+      HttpResponse<InputStream> response = send(url, request, HttpResponse.BodyHandlers.ofInputStream());
+      response.body().close();
+      return new Response(response, InputStream.nullInputStream());
+    } finally {
+      permits.release();
+    }
+  }
+
+  private HttpRequest.Builder newRequest(URL url) throws IOException {
+    try {
+      return HttpRequest.newBuilder(url.toURI()).timeout(requestTimeout);
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      throw new IOException("Cannot request " + url, e);
+    }
+  }
+
+  private <T> HttpResponse<T> send(URL url, HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+    try {
+      return client.send(request, handler);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Request to " + url + " has been interrupted");
+    }
+  }
+
+  private Semaphore acquire(URL url) throws IOException {
+    String host = url.getProtocol() + "://" + url.getHost().toLowerCase(Locale.ROOT) + ":" + url.getPort();
+    Semaphore permits = hosts.get(host);
+    if (permits == null) {
+      Semaphore created = new Semaphore(maxRequestsPerHost);
+      permits = hosts.putIfAbsent(host, created);
+      if (permits == null) {
+        permits = created;
+      }
+    }
+    try {
+      if (!permits.tryAcquire(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new HttpTimeoutException("Timed out waiting for a connection to " + host);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Waiting for a connection to " + host + " has been interrupted");
+    }
+    return permits;
+  }
+
+  /**
+   * The status, headers and body of a response.
+   */
+  public static final class Response implements Closeable {
+    private final HttpResponse<?> response;
+    private final InputStream body;
+
+    Response(HttpResponse<?> response, InputStream body) {
+      this.response = response;
+      this.body = body;
+    }
+
+    public int getStatus() {
+      return response.statusCode();
+    }
+
+    /**
+     * Whether the response carries the resource, that is whether its status
+     * is 2xx, but not 204 No Content. Redirects that are not followed, like
+     * from https to http, do not.
+     *
+     * @return
+     */
+    public boolean hasContent() {
+      int status = getStatus();
+      return status >= 200 && status < 300 && status != 204;
+    }
+
+    @Nullable
+    public String getHeader(@NotNull String name) {
+      return response.headers().firstValue(name).orElse(null);
+    }
+
+    /**
+     * @return the content length or {@code -1} if it is not known
+     */
+    public long getContentLength() {
+      return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+    }
+
+    /**
+     * @return the last modified date in milliseconds or {@code 0} if it is not known
+     */
+    public long getLastModified() {
+      String value = getHeader("Last-Modified");
+      if (value == null) {
+        return 0;
+      }
+      try {
+        return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+      } catch (DateTimeParseException e) {
+        return 0;
+      }
+    }
+
+    @NotNull
+    public InputStream getBody() {
+      return body;
+    }
+
+    @Override
+    public void close() throws IOException {
+      body.close();
+    }
+  }
+
+  /**
+   * Thrown if the server does not respond with the content of the resource,
+   * for example with an error status or an unfollowed redirect.
+   */
+  public static final class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    HttpStatusException(URL url, int status) {
+      super("Server responded with status " + status + " for " + url);
+      this.status = status;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * Server errors may be temporary, client errors are not.
+     */
+    public boolean isRetryable() {
+      return status >= 500 || status == 408 || status == 429;
+    }
+  }
+
+  /**
+   * Gives the permit of the host back when the body is closed.
+   */
+  private static final class ReleasingInputStream extends FilterInputStream {
+    private final Semaphore permits;
+    private boolean closed;
+
+    ReleasingInputStream(InputStream in, Semaphore permits) {
+      super(in);
+      this.permits = permits;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        super.close();
+      } finally {
+        permits.release();
+      }
+    }
+  }
+}
@@ -18,24 +18,37 @@ package org.eknet.swing.uploadfield;
 
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 
-import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListCellRenderer;
 import javax.swing.DefaultListModel;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JList;
+import javax.swing.ListModel;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.Border;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
@@ -45,6 +58,9 @@ import org.jetbrains.annotations.Nullable;
  *   <li>{@link URL}s to images or</li>
  *   <li>{@link DefaultUploadValue}s</li>
  * </ul>
+ * <p/>
+ * Images of {@link URL}s are loaded in the background once per preview size.
+ * Until the image is available, an empty placeholder is shown.
  * 
  * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
  * @since 01.10.11 20:44
@@ -52,8 +68,32 @@ import org.jetbrains.annotations.Nullable;
 public class IconsList extends JList {
   private static final Logger log = LoggerFactory.getLogger(IconsList.class);
 
+  /**
+   * Milliseconds to wait before a rejected image is requested again. The
+   * delay is doubled with each retry.
+   */
+  private static final int RETRY_DELAY = 250;
+
+  /**
+   * How often a rejected image is requested again before the missing
+   * icon is shown.
+   */
+  private static final int MAX_RETRIES = 5;
+
   private Dimension previewSize;
-  
+
+  private final UrlHandlerList handlers = new UrlHandlerList(new ImageHandler(), new Dimension(25, 25));
+
+  /**
+   * Icons of url elements, the key is made of the preview size and the url. Only
+   * accessed from the EDT.
+   */
+  private final Map<String, Icon> icons = new HashMap<String, Icon>();
+  private final Set<String> pending = new HashSet<String>();
+  private final Map<String, Integer> retries = new HashMap<String, Integer>();
+  private Icon placeholder;
+  private LoaderService loaderService;
+
   public IconsList() {
 
     setPreviewSize(new Dimension(25, 25));
@@ -73,17 +113,7 @@ public class IconsList extends JList {
         setText(null);
         if (value instanceof URL) {
           setToolTipText(Utils.lastUrlPart((URL) value));
-          try {
-            BufferedImage img = ImageIO.read((URL) value);
-            if (img == null) {
-              log.error("URL '" + value + "' cannot be read!");
-              setIcon(new ImageIcon(Utils.getMissingImage(previewSize.width, previewSize.height)));
-            } else {
-              setIcon(new ImageIcon(Scales.scaleIfNecessary(img, previewSize.width, previewSize.height)));
-            }
-          } catch (IOException e) {
-            log.error("Cannot scale image: " + value, e);
-          }
+          setIcon(getUrlIcon((URL) value));
         } else if (value instanceof Icon) {
           setIcon((Icon) value);
         } else if (value instanceof UploadValue) {
@@ -101,8 +131,88 @@ public class IconsList extends JList {
     });
   }
 
-  
+  /**
+   * Returns the icon of the given url, or the placeholder if it is
+   * not loaded yet. In the latter case, loading is started.
+   *
+   * @param url
+   * @return
+   */
+  private Icon getUrlIcon(URL url) {
+    String key = iconKey(url, previewSize);
+    Icon icon = icons.get(key);
+    if (icon != null) {
+      return icon;
+    }
+    if (pending.add(key)) {
+      Dimension size = new Dimension(previewSize);
+      handlers.createImageAsync(url, size, getLoaderService())
+          .whenComplete(new IconLoader(url, key, size));
+    }
+    if (placeholder == null) {
+      placeholder = new ImageIcon(new BufferedImage(previewSize.width, previewSize.height, BufferedImage.TYPE_INT_ARGB));
+    }
+    return placeholder;
+  }
+
+  private static String iconKey(URL url, Dimension size) {
+    //avoid URL.equals() and URL.hashCode(), they resolve host names
+    return size.width + "x" + size.height + ":" + url.toExternalForm();
+  }
+
+  private void iconLoaded(URL url, String key, Icon icon) {
+    pending.remove(key);
+    retries.remove(key);
+    if (!key.equals(iconKey(url, previewSize))) {
+      return;
+    }
+    icons.put(key, icon);
+    repaintElements(url);
+  }
+
+  /**
+   * Called if the image could not be loaded now. The cells of the url are
+   * painted again after a short delay, which requests the image again. If
+   * the loader service is shut down or the image has been rejected too
+   * often, the missing icon is shown instead.
+   */
+  private void iconRejected(final URL url, String key, Dimension size) {
+    Integer count = retries.get(key);
+    int retry = count != null ? count + 1 : 1;
+    if (retry > MAX_RETRIES || getLoaderService().isShutdown()) {
+      log.warn("Giving up loading image of " + url + ", the loader service does not accept it");
+      iconLoaded(url, key, new ImageIcon(Utils.getMissingImage(size.width, size.height)));
+      return;
+    }
+    retries.put(key, retry);
+    pending.remove(key);
+    Timer timer = new Timer(RETRY_DELAY << (retry - 1), new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        repaintElements(url);
+      }
+    });
+    timer.setRepeats(false);
+    timer.start();
+  }
+
+  private void repaintElements(URL url) {
+    String external = url.toExternalForm();
+    ListModel<?> model = getModel();
+    for (int i = 0; i < model.getSize(); i++) {
+      Object element = model.getElementAt(i);
+      if (element instanceof URL && external.equals(((URL) element).toExternalForm())) {
+        Rectangle bounds = getCellBounds(i, i);
+        if (bounds != null) {
+          repaint(bounds);
+        }
+      }
+    }
+  }
+
   public void setIconElements(@Nullable Iterable<?> icons) {
+    this.icons.clear();
+    this.retries.clear();
     DefaultListModel model = new DefaultListModel();
     if (icons != null) {
       for (Object icon : icons) {
@@ -112,12 +222,28 @@ public class IconsList extends JList {
     setModel(model);
   }
 
+  @NotNull
+  public LoaderService getLoaderService() {
+    return loaderService != null ? loaderService : LoaderService.getDefault();
+  }
+
+  /**
+   * Sets the service that loads the images of url elements. If {@code null},
+   * the {@link LoaderService#getDefault() default} service is used.
+   *
+   * @param loaderService
+   */
+  public void setLoaderService(@Nullable LoaderService loaderService) {
+    this.loaderService = loaderService;
+  }
+
   public Dimension getPreviewSize() {
     return previewSize;
   }
 
   public void setPreviewSize(Dimension previewSize) {
     this.previewSize = previewSize;
+    this.placeholder = null;
     Dimension np = new Dimension(previewSize);
     np.width += 5;
     np.height += 5;
@@ -137,4 +263,49 @@ public class IconsList extends JList {
     }
   }
 
+  /**
+   * Receives the image of an url element and passes its icon to the EDT.
+   */
+  private class IconLoader implements BiConsumer<BufferedImage, Throwable> {
+    private final URL url;
+    private final String key;
+    private final Dimension size;
+
+    private IconLoader(URL url, String key, Dimension size) {
+      this.url = url;
+      this.key = key;
+      this.size = size;
+    }
+
+    @Override
+    public void accept(BufferedImage img, Throwable error) {
+      if (error instanceof CompletionException && error.getCause() != null) {
+        error = error.getCause();
+      }
+      if (error instanceof CancellationException || error instanceof RejectedExecutionException) {
+        //rejected by the loader service, try again shortly
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            iconRejected(url, key, size);
+          }
+        });
+        return;
+      }
+      if (error != null) {
+        log.error("Cannot scale image: " + url, error);
+      } else if (img == null) {
+        log.error("URL '" + url + "' cannot be read!");
+      }
+      final Icon icon = img != null
+              ? new ImageIcon(img)
+              : new ImageIcon(Utils.getMissingImage(size.width, size.height));
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          iconLoaded(url, key, icon);
+        }
+      });
+    }
+  }
 }
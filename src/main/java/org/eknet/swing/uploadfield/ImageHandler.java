@@ -16,16 +16,28 @@
 
 package org.eknet.swing.uploadfield;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.filechooser.FileFilter;
 
 import org.jetbrains.annotations.NotNull;
@@ -33,14 +45,47 @@ import org.jetbrains.annotations.NotNull;
 /**
  * A very simple preview handler which uses {@link ImageIO} to read an image
  * from the specified url.
+ * <p/>
+ * By default images are decoded in {@link DecodeMode#SUBSAMPLED} mode: if the
+ * preview size is known, the image header is read first and the decoder is told
+ * to skip pixels, such that a large photo is never decoded in full resolution
+ * just to be scaled down to a small preview. For JPEG files the thumbnail that
+ * is embedded in the EXIF or JFIF header is used instead, if it is large enough
+ * for the preview. Then the image data is not decoded at all.
  * 
  * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
  * @since 02.10.11 03:13
  */
-public class ImageHandler extends FilesizeDescriptionUrlHandler {
+public class ImageHandler extends FilesizeDescriptionUrlHandler implements SizeAwareUrlHandler, TypedUrlHandler, StreamingUrlHandler {
+
+  /**
+   * The decoded image is kept at least this many times larger than the
+   * preview, so that the subsequent scaling still has enough pixels to
+   * produce a smooth result.
+   */
+  private static final int OVERSAMPLING = 2;
+
+  public enum DecodeMode {
+    /**
+     * Always decode the complete image.
+     */
+    FULL,
+
+    /**
+     * Decode only every n-th pixel of each row and column, so that the
+     * image is decoded to roughly the size of the preview.
+     */
+    SUBSAMPLED
+  }
 
   private Set<String> extensions = new HashSet<String>();
 
+  private DecodeMode decodeMode = DecodeMode.SUBSAMPLED;
+
+  private boolean useEmbeddedThumbnails = true;
+
+  private final AtomicInteger modifications = new AtomicInteger();
+
   private final FileFilter fileFilter = new FileFilter() {
     @Override
     public boolean accept(File f) {
@@ -76,7 +121,173 @@ public class ImageHandler extends FilesizeDescriptionUrlHandler {
 
   @Override
   public BufferedImage createImage(@NotNull URL url) throws IOException {
-    return ImageIO.read(url);
+    InputStream in = Utils.openStream(url);
+    try {
+      return ImageIO.read(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public BufferedImage createImage(@NotNull URL url, @NotNull Dimension maxSize) throws IOException {
+    if (decodeMode == DecodeMode.FULL) {
+      return createImage(url);
+    }
+    boolean embedded = useEmbeddedThumbnails && isJpeg(url);
+    if (url.getProtocol().equals("file")) {
+      File file = Utils.toFile(url);
+      if (file.canRead()) {
+        BufferedImage thumbnail = embedded ? readEmbeddedThumbnail(url, maxSize) : null;
+        return thumbnail != null ? thumbnail : readImage(file, maxSize);
+      }
+    }
+    //remote resources are fetched only once, the header is kept for decoding
+    InputStream in = new BufferedInputStream(Utils.openStream(url));
+    try {
+      if (embedded) {
+        in.mark(Integer.MAX_VALUE);
+        BufferedImage thumbnail = JpegThumbnails.read(in, maxSize);
+        if (thumbnail != null) {
+          return thumbnail;
+        }
+        in.reset();
+      }
+      return readImage(in, maxSize);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Decodes the image while it is read from the stream. Embedded thumbnails
+   * are not used here, since the stream cannot be rewound.
+   */
+  @Override
+  public BufferedImage createImage(@NotNull InputStream in, String mimeType, @NotNull Dimension maxSize) throws IOException {
+    if (decodeMode == DecodeMode.FULL) {
+      return ImageIO.read(in);
+    }
+    return readImage(in, maxSize);
+  }
+
+  private BufferedImage readEmbeddedThumbnail(URL url, Dimension maxSize) throws IOException {
+    InputStream in = new BufferedInputStream(Utils.openStream(url));
+    try {
+      return JpegThumbnails.read(in, maxSize);
+    } finally {
+      in.close();
+    }
+  }
+
+  private boolean isJpeg(URL url) {
+    String ext = extractExtension(url);
+    return "jpg".equals(ext) || "jpeg".equals(ext) || "jpe".equals(ext);
+  }
+
+  /**
+   * Reads the image from the given source, which must be something that
+   * {@link ImageIO#createImageInputStream(Object)} accepts. The image is
+   * subsampled while decoding, such that it is not much larger than
+   * necessary for a preview of {@code maxSize}.
+   *
+   * @param source
+   * @param maxSize
+   * @return the image or {@code null} if no reader is available
+   * @throws IOException
+   */
+  static BufferedImage readImage(Object source, Dimension maxSize) throws IOException {
+    ImageInputStream iis = ImageIO.createImageInputStream(source);
+    if (iis == null) {
+      return null;
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(iis, true, true);
+        ImageReadParam param = reader.getDefaultReadParam();
+        int step = getSubsampling(reader.getWidth(0), reader.getHeight(0), maxSize);
+        if (step > 1) {
+          param.setSourceSubsampling(step, step, 0, 0);
+        }
+        reader.addIIOReadProgressListener(abortOnInterrupt);
+        BufferedImage image = reader.read(0, param);
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("Decoding the image has been interrupted");
+        }
+        return image;
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      iis.close();
+    }
+  }
+
+  /**
+   * Aborts decoding if the reading thread has been interrupted, which
+   * happens if loading is cancelled.
+   */
+  private static final IIOReadProgressListener abortOnInterrupt = new IIOReadProgressListener() {
+    @Override
+    public void imageProgress(ImageReader source, float percentageDone) {
+      if (Thread.currentThread().isInterrupted()) {
+        source.abort();
+      }
+    }
+
+    @Override
+    public void sequenceStarted(ImageReader source, int minIndex) {
+    }
+
+    @Override
+    public void sequenceComplete(ImageReader source) {
+    }
+
+    @Override
+    public void imageStarted(ImageReader source, int imageIndex) {
+    }
+
+    @Override
+    public void imageComplete(ImageReader source) {
+    }
+
+    @Override
+    public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+    }
+
+    @Override
+    public void thumbnailProgress(ImageReader source, float percentageDone) {
+    }
+
+    @Override
+    public void thumbnailComplete(ImageReader source) {
+    }
+
+    @Override
+    public void readAborted(ImageReader source) {
+    }
+  };
+
+  /**
+   * Returns the subsampling step for an image of the given size. The preview
+   * is scaled proportional, so the larger ratio determines the final size.
+   *
+   * @param width
+   * @param height
+   * @param maxSize
+   * @return
+   */
+  static int getSubsampling(int width, int height, Dimension maxSize) {
+    if (maxSize.width <= 0 || maxSize.height <= 0) {
+      return 1;
+    }
+    double ratio = Math.max((double) width / maxSize.width, (double) height / maxSize.height);
+    return Math.max(1, (int) Math.floor(ratio / OVERSAMPLING));
   }
 
   @Override
@@ -85,10 +296,15 @@ public class ImageHandler extends FilesizeDescriptionUrlHandler {
       String ext = extractExtension(value.getResource());
       if (extensions.contains(ext)) {
         StringBuilder buf = new StringBuilder();
-        if (value.getImage() != null) {
-          buf.append(value.getImage().getWidth())
+        ImageInfo info = value.getImageInfo();
+        if (info == null) {
+          info = ImageInfo.read(value.getFile());
+          value.setImageInfo(info);
+        }
+        if (info != null) {
+          buf.append(info.getWidth())
                   .append("x")
-                  .append(value.getImage().getHeight())
+                  .append(info.getHeight())
                   .append("px");
           buf.append("; ");
         }
@@ -100,27 +316,51 @@ public class ImageHandler extends FilesizeDescriptionUrlHandler {
   }
 
   private String extractExtension(URL url) {
-    if (url == null) {
-      return null;
-    }
-    String path = url.getPath();
-    int index = path.lastIndexOf(".");
-    if (index >= 0) {
-      return path.substring(index + 1).toLowerCase();
-    }
-    return null;
+    return Utils.getExtension(url);
   }
-  
+
+  /**
+   * Returns the extensions of this handler. Use {@link #setExtensions(String...)}
+   * to change them, changes to the returned set are not noticed by the upload
+   * fields this handler has been added to.
+   *
+   * @return
+   */
+  @NotNull
+  @Override
   public Set<String> getExtensions() {
     return extensions;
   }
 
+  /**
+   * Returns the mime types of the ImageIO readers that are registered
+   * for the {@link #getExtensions() extensions}.
+   *
+   * @return
+   */
+  @NotNull
+  @Override
+  public Set<String> getMimeTypes() {
+    Set<String> types = new HashSet<String>();
+    for (String ext : extensions) {
+      Iterator<ImageReader> readers = ImageIO.getImageReadersBySuffix(ext);
+      while (readers.hasNext()) {
+        ImageReaderSpi spi = readers.next().getOriginatingProvider();
+        if (spi != null && spi.getMIMETypes() != null) {
+          Collections.addAll(types, spi.getMIMETypes());
+        }
+      }
+    }
+    return types;
+  }
+
   public void setExtensions(Set<String> extensions) {
     if (extensions == null) {
       this.extensions = new HashSet<String>();
     } else {
       this.extensions = extensions;
     }
+    modifications.incrementAndGet();
   }
 
   public void setExtensions(String... extensions) {
@@ -128,9 +368,50 @@ public class ImageHandler extends FilesizeDescriptionUrlHandler {
     if (extensions != null) {
       Collections.addAll(this.extensions, extensions);
     }
+    modifications.incrementAndGet();
+  }
+
+  public DecodeMode getDecodeMode() {
+    return decodeMode;
+  }
+
+  public void setDecodeMode(@NotNull DecodeMode decodeMode) {
+    this.decodeMode = decodeMode;
+    modifications.incrementAndGet();
+  }
+
+  public boolean isUseEmbeddedThumbnails() {
+    return useEmbeddedThumbnails;
+  }
+
+  /**
+   * Whether to use the thumbnail embedded in JPEG files for the preview,
+   * if it is large enough. This is only effective in
+   * {@link DecodeMode#SUBSAMPLED} mode.
+   *
+   * @param useEmbeddedThumbnails
+   */
+  public void setUseEmbeddedThumbnails(boolean useEmbeddedThumbnails) {
+    this.useEmbeddedThumbnails = useEmbeddedThumbnails;
+    modifications.incrementAndGet();
+  }
+
+  @Override
+  public int getModificationCount() {
+    return modifications.get();
   }
 
   public FileFilter getFileFilter() {
     return fileFilter;
   }
+
+  /**
+   * Identifies the settings that change the created images, so that
+   * previews cached with other settings are not used.
+   *
+   * @return
+   */
+  String getSignature() {
+    return decodeMode + "," + useEmbeddedThumbnails + "," + new TreeSet<String>(extensions);
+  }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Lightweight metadata of an image: its pixel dimensions, format and
+ * color model. It is read from the image header only, no pixel data
+ * is decoded.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 11:41
+ */
+public final class ImageInfo {
+
+  private final int width;
+  private final int height;
+  private final String formatName;
+  private final int bitsPerPixel;
+  private final int numComponents;
+  private final boolean alpha;
+
+  public ImageInfo(int width, int height, @NotNull String formatName, int bitsPerPixel, int numComponents, boolean alpha) {
+    this.width = width;
+    this.height = height;
+    this.formatName = formatName;
+    this.bitsPerPixel = bitsPerPixel;
+    this.numComponents = numComponents;
+    this.alpha = alpha;
+  }
+
+  /**
+   * Reads the header of the given file. Returns {@code null} if the
+   * file is not an image that can be read by {@link ImageIO}.
+   *
+   * @param file
+   * @return
+   */
+  @Nullable
+  public static ImageInfo read(@Nullable File file) {
+    if (file == null || !file.isFile()) {
+      return null;
+    }
+    try {
+      ImageInputStream iis = ImageIO.createImageInputStream(file);
+      if (iis == null) {
+        return null;
+      }
+      try {
+        return read(iis);
+      } finally {
+        iis.close();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads the header from the given stream. Returns {@code null}
+   * if no reader can decode the stream.
+   *
+   * @param iis
+   * @return
+   * @throws IOException
+   */
+  @Nullable
+  public static ImageInfo read(@NotNull ImageInputStream iis) throws IOException {
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+    if (!readers.hasNext()) {
+      return null;
+    }
+    ImageReader reader = readers.next();
+    try {
+      reader.setInput(iis, true, true);
+      return read(reader);
+    } finally {
+      reader.dispose();
+    }
+  }
+
+  /**
+   * Creates the info from a reader whose input is already set.
+   *
+   * @param reader
+   * @return
+   * @throws IOException
+   */
+  @NotNull
+  static ImageInfo read(@NotNull ImageReader reader) throws IOException {
+    int bits = 0;
+    int components = 0;
+    boolean alpha = false;
+    ImageTypeSpecifier type = reader.getRawImageType(0);
+    if (type == null) {
+      Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+      type = types.hasNext() ? types.next() : null;
+    }
+    if (type != null) {
+      ColorModel cm = type.getColorModel();
+      bits = cm.getPixelSize();
+      components = cm.getNumComponents();
+      alpha = cm.hasAlpha();
+    }
+    return new ImageInfo(reader.getWidth(0), reader.getHeight(0), reader.getFormatName(), bits, components, alpha);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * The informal format name as returned by the image reader, like
+   * "JPEG" or "png".
+   *
+   * @return
+   */
+  @NotNull
+  public String getFormatName() {
+    return formatName;
+  }
+
+  /**
+   * The number of bits per pixel of the color model, or {@code 0}
+   * if it is not known.
+   *
+   * @return
+   */
+  public int getBitsPerPixel() {
+    return bitsPerPixel;
+  }
+
+  /**
+   * The number of color and alpha components, or {@code 0} if
+   * it is not known.
+   *
+   * @return
+   */
+  public int getNumComponents() {
+    return numComponents;
+  }
+
+  public boolean hasAlpha() {
+    return alpha;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    ImageInfo that = (ImageInfo) o;
+
+    if (alpha != that.alpha) return false;
+    if (bitsPerPixel != that.bitsPerPixel) return false;
+    if (height != that.height) return false;
+    if (numComponents != that.numComponents) return false;
+    if (width != that.width) return false;
+    if (!formatName.equals(that.formatName)) return false;
+
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = width;
+    result = 31 * result + height;
+    result = 31 * result + formatName.hashCode();
+    result = 31 * result + bitsPerPixel;
+    result = 31 * result + numComponents;
+    result = 31 * result + (alpha ? 1 : 0);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "ImageInfo{" +
+            "width=" + width +
+            ", height=" + height +
+            ", formatName='" + formatName + '\'' +
+            ", bitsPerPixel=" + bitsPerPixel +
+            ", numComponents=" + numComponents +
+            ", alpha=" + alpha +
+            '}';
+  }
+}
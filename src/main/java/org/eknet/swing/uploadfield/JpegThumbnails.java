@@ -0,0 +1,269 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads the thumbnail that is embedded in the EXIF (APP1) or JFIF (APP0)
+ * segments of most JPEG files.
+ * <p/>
+ * Only the header segments of the file are read, which come before the
+ * compressed image data. The scan data itself is never touched.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 11:03
+ */
+final class JpegThumbnails {
+
+  private static final int SOI = 0xD8;
+  private static final int EOI = 0xD9;
+  private static final int SOS = 0xDA;
+  private static final int APP0 = 0xE0;
+  private static final int APP1 = 0xE1;
+
+  /**
+   * Thumbnails with a differing aspect ratio are usually padded with black
+   * bars and not used.
+   */
+  private static final double ASPECT_TOLERANCE = 0.03;
+
+  private JpegThumbnails() {
+  }
+
+  /**
+   * Reads the embedded thumbnail from the given jpeg stream. The thumbnail is
+   * only returned, if it is large enough to create a preview of {@code maxSize}
+   * without scaling it up and if it has the same aspect ratio as the image.
+   *
+   * @param in
+   * @param maxSize
+   * @return the thumbnail or {@code null}
+   * @throws IOException
+   */
+  @Nullable
+  public static BufferedImage read(InputStream in, Dimension maxSize) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    BufferedImage thumbnail = null;
+    try {
+      if (data.readUnsignedByte() != 0xFF || data.readUnsignedByte() != SOI) {
+        return null;
+      }
+      while (true) {
+        int marker = nextMarker(data);
+        if (marker == SOS || marker == EOI) {
+          return null;
+        }
+        if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+          continue; //markers without payload
+        }
+        int length = data.readUnsignedShort() - 2;
+        if (length < 0) {
+          return null;
+        }
+        if (isStartOfFrame(marker)) {
+          data.readUnsignedByte(); //precision
+          int height = data.readUnsignedShort();
+          int width = data.readUnsignedShort();
+          if (thumbnail != null && isSuitable(thumbnail, width, height, maxSize)) {
+            return thumbnail;
+          }
+          return null;
+        }
+        if (thumbnail == null && (marker == APP0 || marker == APP1)) {
+          byte[] segment = new byte[length];
+          data.readFully(segment);
+          thumbnail = marker == APP0 ? readJfifThumbnail(segment) : readExifThumbnail(segment);
+        } else {
+          skipFully(data, length);
+        }
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  private static boolean isSuitable(BufferedImage thumbnail, int width, int height, Dimension maxSize) {
+    if (width <= 0 || height <= 0) {
+      return false;
+    }
+    double imageAspect = (double) width / height;
+    double thumbAspect = (double) thumbnail.getWidth() / thumbnail.getHeight();
+    if (Math.abs(imageAspect - thumbAspect) / imageAspect > ASPECT_TOLERANCE) {
+      return false;
+    }
+    //the preview is scaled proportional, so one side is filled completely
+    double ratio = Math.max((double) width / maxSize.width, (double) height / maxSize.height);
+    int previewWidth = (int) Math.floor(width / ratio);
+    int previewHeight = (int) Math.floor(height / ratio);
+    return thumbnail.getWidth() >= Math.min(previewWidth, width)
+            && thumbnail.getHeight() >= Math.min(previewHeight, height);
+  }
+
+  private static boolean isStartOfFrame(int marker) {
+    return marker >= 0xC0 && marker <= 0xCF
+            && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+  }
+
+  private static int nextMarker(DataInputStream data) throws IOException {
+    int b = data.readUnsignedByte();
+    while (b != 0xFF) {
+      b = data.readUnsignedByte();
+    }
+    while (b == 0xFF) {
+      b = data.readUnsignedByte();
+    }
+    return b;
+  }
+
+  private static void skipFully(DataInputStream data, int n) throws IOException {
+    int remaining = n;
+    while (remaining > 0) {
+      int skipped = data.skipBytes(remaining);
+      if (skipped <= 0) {
+        data.readUnsignedByte();
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
+  }
+
+  private static BufferedImage readJfifThumbnail(byte[] segment) throws IOException {
+    if (startsWith(segment, "JFIF\0") && segment.length >= 14) {
+      int w = segment[12] & 0xFF;
+      int h = segment[13] & 0xFF;
+      return readRgb(segment, 14, w, h);
+    }
+    if (startsWith(segment, "JFXX\0") && segment.length > 5) {
+      int extension = segment[5] & 0xFF;
+      if (extension == 0x10) {
+        return decode(segment, 6, segment.length - 6);
+      }
+      if (extension == 0x13 && segment.length >= 8) {
+        int w = segment[6] & 0xFF;
+        int h = segment[7] & 0xFF;
+        return readRgb(segment, 8, w, h);
+      }
+    }
+    return null;
+  }
+
+  private static BufferedImage readRgb(byte[] segment, int offset, int w, int h) {
+    if (w == 0 || h == 0 || segment.length < offset + 3 * w * h) {
+      return null;
+    }
+    BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    int pos = offset;
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        int rgb = (segment[pos] & 0xFF) << 16 | (segment[pos + 1] & 0xFF) << 8 | (segment[pos + 2] & 0xFF);
+        img.setRGB(x, y, rgb);
+        pos += 3;
+      }
+    }
+    return img;
+  }
+
+  private static BufferedImage readExifThumbnail(byte[] segment) throws IOException {
+    if (!startsWith(segment, "Exif\0\0") || segment.length < 14) {
+      return null;
+    }
+    int tiff = 6;
+    boolean little;
+    if (segment[tiff] == 'I' && segment[tiff + 1] == 'I') {
+      little = true;
+    } else if (segment[tiff] == 'M' && segment[tiff + 1] == 'M') {
+      little = false;
+    } else {
+      return null;
+    }
+    int ifd0 = readInt(segment, tiff + 4, little);
+    int ifd0Pos = tiff + ifd0;
+    if (ifd0 < 8 || ifd0Pos + 2 > segment.length) {
+      return null;
+    }
+    int entries = readShort(segment, ifd0Pos, little);
+    int nextPos = ifd0Pos + 2 + entries * 12;
+    if (nextPos + 4 > segment.length) {
+      return null;
+    }
+    int ifd1 = readInt(segment, nextPos, little);
+    int ifd1Pos = tiff + ifd1;
+    if (ifd1 < 8 || ifd1Pos + 2 > segment.length) {
+      return null;
+    }
+    entries = readShort(segment, ifd1Pos, little);
+    int offset = -1;
+    int length = -1;
+    for (int i = 0; i < entries; i++) {
+      int entry = ifd1Pos + 2 + i * 12;
+      if (entry + 12 > segment.length) {
+        return null;
+      }
+      int tag = readShort(segment, entry, little);
+      if (tag == 0x0201) {
+        offset = readInt(segment, entry + 8, little);
+      } else if (tag == 0x0202) {
+        length = readInt(segment, entry + 8, little);
+      }
+    }
+    if (offset <= 0 || length <= 0 || tiff + offset + length > segment.length) {
+      return null;
+    }
+    return decode(segment, tiff + offset, length);
+  }
+
+  private static BufferedImage decode(byte[] data, int offset, int length) throws IOException {
+    return ImageIO.read(new ByteArrayInputStream(data, offset, length));
+  }
+
+  private static boolean startsWith(byte[] segment, String id) {
+    if (segment.length < id.length()) {
+      return false;
+    }
+    for (int i = 0; i < id.length(); i++) {
+      if (segment[i] != id.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int readShort(byte[] b, int pos, boolean little) {
+    if (little) {
+      return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8;
+    }
+    return (b[pos] & 0xFF) << 8 | (b[pos + 1] & 0xFF);
+  }
+
+  private static int readInt(byte[] b, int pos, boolean little) {
+    if (little) {
+      return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8 | (b[pos + 2] & 0xFF) << 16 | (b[pos + 3] & 0xFF) << 24;
+    }
+    return (b[pos] & 0xFF) << 24 | (b[pos + 1] & 0xFF) << 16 | (b[pos + 2] & 0xFF) << 8 | (b[pos + 3] & 0xFF);
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Runs the loading tasks of upload fields.
+ * <p/>
+ * The steps of loading a value, like downloading and decoding, are not run on
+ * the shared executor of {@link javax.swing.SwingWorker}. Instead they are run
+ * by a loader service, which has its own bounded pool and queue. This way the loading
+ * concurrency can be tuned without affecting other background work of the
+ * application. All fields use the {@link #getDefault() default} service, unless
+ * another one is set.
+ * <p/>
+ * Tasks that cannot be queued are handled by the {@link RejectedExecutionHandler}.
+ * The default one, {@link CancelPolicy}, cancels the task; the field then shows
+ * a loading error.
+ * <p/>
+ * On Java 21 and later, {@link #newVirtualThreadService()} creates a service that
+ * runs each task on its own virtual thread. Since loading mostly waits on I/O, this
+ * allows many slow remote resources to be loaded at once without occupying a
+ * platform thread each. Results are still published on the EDT.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 15:52
+ */
+public class LoaderService {
+  private static final Logger log = LoggerFactory.getLogger(LoaderService.class);
+
+  public static final int DEFAULT_POOL_SIZE = 4;
+  public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+  private static LoaderService defaultService;
+
+  private static final Method newVirtualThreadExecutor = findVirtualThreadExecutorFactory();
+
+  private final ExecutorService executor;
+
+  public LoaderService(int poolSize, int queueCapacity, @NotNull RejectedExecutionHandler rejectionPolicy) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueCapacity),
+            Utils.daemonThreadFactory("upload-loader"),
+            rejectionPolicy);
+    pool.allowCoreThreadTimeOut(true);
+    this.executor = pool;
+  }
+
+  public LoaderService(int poolSize, int queueCapacity) {
+    this(poolSize, queueCapacity, new CancelPolicy());
+  }
+
+  public LoaderService() {
+    this(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Creates a service that runs all tasks on the given executor.
+   *
+   * @param executor
+   */
+  public LoaderService(@NotNull ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the service that is used by all fields that have no
+   * other service set.
+   *
+   * @return
+   */
+  @NotNull
+  public static synchronized LoaderService getDefault() {
+    if (defaultService == null) {
+      defaultService = new LoaderService();
+    }
+    return defaultService;
+  }
+
+  public static synchronized void setDefault(@NotNull LoaderService service) {
+    defaultService = service;
+  }
+
+  /**
+   * Creates a service that starts a new virtual thread for each task. The
+   * number of concurrent tasks is not bounded.
+   *
+   * @return
+   * @throws UnsupportedOperationException if the runtime does not support
+   * virtual threads
+   * @see #isVirtualThreadsSupported()
+   */
+  @NotNull
+  public static LoaderService newVirtualThreadService() {
+    if (newVirtualThreadExecutor == null) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+    try {
+      return new LoaderService((ExecutorService) newVirtualThreadExecutor.invoke(null));
+    } catch (IllegalAccessException e) {
+      throw new UnsupportedOperationException("Unable to create virtual thread executor", e);
+    } catch (InvocationTargetException e) {
+      throw new UnsupportedOperationException("Unable to create virtual thread executor", e.getCause());
+    }
+  }
+
+  /**
+   * Whether the runtime supports virtual threads, which are used by
+   * {@link #newVirtualThreadService()}.
+   *
+   * @return
+   */
+  public static boolean isVirtualThreadsSupported() {
+    return newVirtualThreadExecutor != null;
+  }
+
+  private static Method findVirtualThreadExecutorFactory() {
+    //looked up reflectively, the library still runs on older JVMs
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Runs the given task asynchronously. It is passed to the rejection
+   * policy if the queue is full.
+   *
+   * @param task
+   */
+  public void execute(@NotNull Runnable task) {
+    executor.execute(task);
+  }
+
+  /**
+   * Runs the given callable asynchronously and returns a future of its
+   * result. Cancelling the future interrupts the callable. If the task is
+   * rejected, the future completes with a {@link CancellationException}.
+   *
+   * @param callable
+   * @param <V>
+   * @return
+   */
+  @NotNull
+  public <V> CompletableFuture<V> submit(@NotNull Callable<V> callable) {
+    final CompletableFuture<V> result = new CompletableFuture<V>();
+    final FutureTask<V> task = new FutureTask<V>(callable) {
+      @Override
+      protected void done() {
+        if (isCancelled()) {
+          result.completeExceptionally(new CancellationException("Task has been cancelled"));
+          return;
+        }
+        try {
+          result.complete(get());
+        } catch (ExecutionException e) {
+          result.completeExceptionally(e.getCause());
+        } catch (InterruptedException e) {
+          result.completeExceptionally(e);
+        }
+      }
+    };
+    result.whenComplete(new BiConsumer<V, Throwable>() {
+      @Override
+      public void accept(V v, Throwable throwable) {
+        task.cancel(true);
+      }
+    });
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  @NotNull
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Shuts down the executor of this service. Running tasks are completed,
+   * but no new tasks are accepted.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Whether this service has been shut down and does not accept new
+   * tasks anymore.
+   *
+   * @return
+   */
+  public boolean isShutdown() {
+    return executor.isShutdown();
+  }
+
+  /**
+   * Cancels rejected tasks, if they are {@link Future}s. Other tasks are
+   * discarded.
+   */
+  public static class CancelPolicy implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      log.warn("Loader queue is full, cancelling task " + r);
+      if (r instanceof Future) {
+        ((Future<?>) r).cancel(false);
+      }
+    }
+  }
+}
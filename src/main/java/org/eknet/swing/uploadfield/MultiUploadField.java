@@ -22,10 +22,20 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
@@ -33,15 +43,20 @@ import javax.swing.event.ListSelectionListener;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
  * @since 02.10.11 00:08
  */
 public class MultiUploadField extends JPanel {
+  private static final Logger log = LoggerFactory.getLogger(MultiUploadField.class);
 
   public static final String VALUE_PROPERTY_NAME = "uploadValueList";
 
+  public static final int DEFAULT_BATCH_CONCURRENCY = 4;
+
   private JPanel root;
   private IconsList previewList;
   private UploadField fileInput;
@@ -55,11 +70,29 @@ public class MultiUploadField extends JPanel {
 
   private List<UploadValue> uploadValueList = new ArrayList<UploadValue>();
 
+  private int batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+  private BatchLoader batchLoader;
+
+  private boolean deduplicate;
+
+  /**
+   * The values of the list by the hash of their content, used if
+   * {@link #isDeduplicate()} is enabled. Read by loader threads.
+   */
+  private final Map<ContentHash, UploadValue> contentIndex = new ConcurrentHashMap<ContentHash, UploadValue>();
+
+  private final UploadField.ContentLookup contentLookup = new UploadField.ContentLookup() {
+    @Override
+    public UploadValue find(@NotNull ContentHash hash) {
+      return contentIndex.get(hash);
+    }
+  };
+
   private final ActionListener addAction = new ActionListener() {
     @Override
     public void actionPerformed(ActionEvent e) {
       List<UploadValue> newValue = new ArrayList<UploadValue>(getUploadValueList());
-      if (!newValue.contains(fileInput.getUploadValue())) {
+      if (!newValue.contains(fileInput.getUploadValue()) && !isDuplicate(fileInput.getUploadValue())) {
         newValue.add(fileInput.getUploadValue());
         setUploadValueList(newValue);
       }
@@ -94,7 +127,7 @@ public class MultiUploadField extends JPanel {
   private final DropHandler dropHandler = new DropHandler() {
     @Override
     protected boolean setData(List<UploadValue> data) {
-      setUploadValueList(data);
+      addUploadValues(data);
       return true;
     }
   };
@@ -112,6 +145,19 @@ public class MultiUploadField extends JPanel {
             fc.setMultiSelectionEnabled(true);
             return fc;
           }
+
+          @Override
+          protected void pushFilesToComponent(File[] files) {
+            List<UploadValue> values = new ArrayList<UploadValue>(files.length);
+            for (File f : files) {
+              try {
+                values.add(new DefaultUploadValue(f.toURI().toURL()));
+              } catch (MalformedURLException e) {
+                throw new RuntimeException(e);
+              }
+            }
+            addUploadValues(values);
+          }
         };
       }
 
@@ -122,6 +168,7 @@ public class MultiUploadField extends JPanel {
 
       @Override
       protected void onReset() {
+        cancelBatchLoading();
         setUploadValueList(null);
       }
     };
@@ -212,6 +259,85 @@ public class MultiUploadField extends JPanel {
     return fileInput.getPreviewSize();
   }
 
+  @NotNull
+  public ScaleMode getScaleMode() {
+    return fileInput.getScaleMode();
+  }
+
+  public void setScaleMode(@NotNull ScaleMode scaleMode) {
+    fileInput.setScaleMode(scaleMode);
+  }
+
+  public long getParallelScaleThreshold() {
+    return fileInput.getParallelScaleThreshold();
+  }
+
+  public void setParallelScaleThreshold(long pixels) {
+    fileInput.setParallelScaleThreshold(pixels);
+  }
+
+  @Nullable
+  public ContentDigest getContentDigest() {
+    return fileInput.getContentDigest();
+  }
+
+  public void setContentDigest(@Nullable ContentDigest contentDigest) {
+    fileInput.setContentDigest(contentDigest);
+  }
+
+  @NotNull
+  public RetryPolicy getRetryPolicy() {
+    return fileInput.getRetryPolicy();
+  }
+
+  public void setRetryPolicy(@NotNull RetryPolicy retryPolicy) {
+    fileInput.setRetryPolicy(retryPolicy);
+  }
+
+  @NotNull
+  public SpoolManager getSpoolManager() {
+    return fileInput.getSpoolManager();
+  }
+
+  public void setSpoolManager(@Nullable SpoolManager spoolManager) {
+    fileInput.setSpoolManager(spoolManager);
+  }
+
+  public boolean isStreamingDecode() {
+    return fileInput.isStreamingDecode();
+  }
+
+  public void setStreamingDecode(boolean streamingDecode) {
+    fileInput.setStreamingDecode(streamingDecode);
+  }
+
+  @Nullable
+  public ThumbnailCache getThumbnailCache() {
+    return fileInput.getThumbnailCache();
+  }
+
+  public void setThumbnailCache(@Nullable ThumbnailCache cache) {
+    fileInput.setThumbnailCache(cache);
+  }
+
+  @Nullable
+  public DiskThumbnailCache getDiskCache() {
+    return fileInput.getDiskCache();
+  }
+
+  public void setDiskCache(@Nullable DiskThumbnailCache cache) {
+    fileInput.setDiskCache(cache);
+  }
+
+  @NotNull
+  public LoaderService getLoaderService() {
+    return fileInput.getLoaderService();
+  }
+
+  public void setLoaderService(@Nullable LoaderService loaderService) {
+    fileInput.setLoaderService(loaderService);
+  }
+
   public JComponent getGlassPane() {
     return fileInput.getGlassPane();
   }
@@ -263,6 +389,8 @@ public class MultiUploadField extends JPanel {
       if (!files.contains(img)) {
         iter.remove();
         previewList.removeElement(img);
+        getSpoolManager().release(img.getFile());
+        unindex(img);
       }
     }
 
@@ -271,6 +399,8 @@ public class MultiUploadField extends JPanel {
       if (!old.contains(value)) {
         this.uploadValueList.add(value);
         previewList.addElement(value);
+        getSpoolManager().acquire(value.getFile());
+        index(value);
       }
     }
 
@@ -291,6 +421,132 @@ public class MultiUploadField extends JPanel {
     return uploadValueList;
   }
 
+  /**
+   * Loads the given values in parallel and appends them to the list as
+   * they complete. At most {@link #getBatchConcurrency()} values are loaded
+   * at the same time. Values already in the list are skipped, values that
+   * cannot be loaded are left out.
+   * <p/>
+   * One property change event is fired after all values are loaded. If this
+   * is called while another batch is loading, the values are added to that
+   * batch.
+   *
+   * @param values
+   */
+  public void addUploadValues(@Nullable Collection<? extends UploadValue> values) {
+    if (values == null || values.isEmpty()) {
+      return;
+    }
+    if (batchLoader == null) {
+      batchLoader = new BatchLoader();
+    }
+    batchLoader.add(values);
+  }
+
+  /**
+   * Cancels loading the values of the current batch. Values that have been
+   * loaded already stay in the list.
+   */
+  public void cancelBatchLoading() {
+    if (batchLoader != null) {
+      BatchLoader loader = batchLoader;
+      batchLoader = null;
+      loader.cancel();
+    }
+  }
+
+  public boolean isBatchLoading() {
+    return batchLoader != null;
+  }
+
+  public boolean isDeduplicate() {
+    return deduplicate;
+  }
+
+  /**
+   * If enabled, values whose content is already in the list are not added
+   * again, even if they come from another file or url. Values are compared
+   * by their {@link UploadValue#getContentHash() content hash}, so a
+   * {@link #setContentDigest(ContentDigest) digest} must be set. Loading a
+   * duplicate skips decoding and uses the preview of the existing value.
+   * Duplicates that are loaded at the same time, like in one drop, are
+   * decoded only once.
+   * <p/>
+   * If the digest is not {@link ContentDigest#isCryptographic() cryptographic},
+   * different contents may have the same hash. Then values with the same hash
+   * are compared byte by byte before one is taken as a duplicate, and
+   * values loaded at the same time are decoded each.
+   *
+   * @param deduplicate
+   */
+  public void setDeduplicate(boolean deduplicate) {
+    this.deduplicate = deduplicate;
+    contentIndex.clear();
+    if (deduplicate) {
+      for (UploadValue value : uploadValueList) {
+        index(value);
+      }
+    }
+    fileInput.setContentLookup(deduplicate ? contentLookup : null);
+  }
+
+  private boolean isDuplicate(@Nullable UploadValue value) {
+    try {
+      return findDuplicate(value) != null;
+    } catch (IOException e) {
+      log.warn("Cannot compare " + value.getResource() + " with the values of the list", e);
+      return false;
+    }
+  }
+
+  /**
+   * Returns the value of the list that has the same content as the given
+   * one. If the hash is not cryptographic, the contents are compared, which
+   * reads both files.
+   *
+   * @param value
+   * @return
+   * @throws IOException
+   */
+  @Nullable
+  private UploadValue findDuplicate(@Nullable UploadValue value) throws IOException {
+    if (!deduplicate || value == null || value.getContentHash() == null) {
+      return null;
+    }
+    ContentHash hash = value.getContentHash();
+    UploadValue existing = contentIndex.get(hash);
+    if (existing == null || existing == value) {
+      return null;
+    }
+    if (!hash.isCryptographic() && !Utils.sameContent(existing.getFile(), value.getFile())) {
+      return null;
+    }
+    return existing;
+  }
+
+  private void index(UploadValue value) {
+    if (deduplicate && value.getContentHash() != null && !contentIndex.containsKey(value.getContentHash())) {
+      contentIndex.put(value.getContentHash(), value);
+    }
+  }
+
+  private void unindex(UploadValue value) {
+    if (value.getContentHash() != null) {
+      contentIndex.remove(value.getContentHash(), value);
+    }
+  }
+
+  public int getBatchConcurrency() {
+    return batchConcurrency;
+  }
+
+  public void setBatchConcurrency(int batchConcurrency) {
+    if (batchConcurrency < 1) {
+      throw new IllegalArgumentException("Concurrency must be positive: " + batchConcurrency);
+    }
+    this.batchConcurrency = batchConcurrency;
+  }
+
   private List<UploadValue> cloneList() {
     List<UploadValue> clone = new ArrayList<UploadValue>(this.uploadValueList.size());
     for (UploadValue val : this.uploadValueList) {
@@ -314,5 +570,111 @@ public class MultiUploadField extends JPanel {
   protected void customizeFileChooser(JFileChooser fc) {
   }
 
+  /**
+   * Loads the values of one batch. All state is accessed on the EDT only,
+   * the values are loaded using the {@link #getLoaderService() loader service}.
+   */
+  private class BatchLoader {
+    /**
+     * The values this batch added to the list.
+     */
+    private final List<UploadValue> added = new ArrayList<UploadValue>();
+    private final LinkedList<UploadValue> queue = new LinkedList<UploadValue>();
+    private final List<CompletableFuture<UploadValue>> running = new ArrayList<CompletableFuture<UploadValue>>();
+    private boolean cancelled;
+
+    public void add(Collection<? extends UploadValue> values) {
+      for (UploadValue value : values) {
+        if (value != null && !queue.contains(value) && !uploadValueList.contains(value)) {
+          queue.add(value);
+        }
+      }
+      next();
+    }
+
+    private void next() {
+      while (!cancelled && running.size() < batchConcurrency && !queue.isEmpty()) {
+        final UploadValue value = queue.removeFirst();
+        final CompletableFuture<UploadValue> future = fileInput.loadValue(value, null);
+        running.add(future);
+        future.whenComplete(new BiConsumer<UploadValue, Throwable>() {
+          @Override
+          public void accept(final UploadValue result, final Throwable error) {
+            //compared here, since it may read the files
+            UploadValue original = null;
+            if (error == null) {
+              try {
+                original = findDuplicate(result);
+              } catch (IOException e) {
+                log.warn("Cannot compare " + value.getResource() + " with the values of the list", e);
+              }
+            }
+            final UploadValue duplicateOf = original;
+            SwingUtilities.invokeLater(new Runnable() {
+              @Override
+              public void run() {
+                loaded(future, value, result, duplicateOf, error);
+              }
+            });
+          }
+        });
+      }
+      if (!cancelled && running.isEmpty() && queue.isEmpty()) {
+        batchLoader = null;
+        fireCompleted();
+      }
+    }
+
+    private void loaded(CompletableFuture<UploadValue> future, UploadValue requested, UploadValue value,
+                        UploadValue duplicateOf, Throwable error) {
+      running.remove(future);
+      if (cancelled) {
+        return;
+      }
+      if (error != null) {
+        error = Utils.unwrap(error);
+        if (error instanceof CancellationException) {
+          log.warn("Loading " + requested.getResource() + " has been rejected");
+        } else {
+          log.error("Error loading " + requested.getResource(), error);
+        }
+        value = null;
+      }
+      //the list may have changed since the value was compared
+      boolean duplicate = duplicateOf != null && uploadValueList.contains(duplicateOf) || isDuplicate(value);
+      if (value != null && !uploadValueList.contains(value) && !duplicate) {
+        uploadValueList.add(value);
+        previewList.addElement(value);
+        getSpoolManager().acquire(value.getFile());
+        index(value);
+        added.add(value);
+      }
+      next();
+    }
+
+    /**
+     * Fires the change made by this batch. The list may have been edited
+     * while the batch was running, so the old value is the current list
+     * without the values of this batch.
+     */
+    private void fireCompleted() {
+      List<UploadValue> list = new ArrayList<UploadValue>(uploadValueList);
+      List<UploadValue> old = new ArrayList<UploadValue>(list);
+      old.removeAll(added);
+      if (!old.equals(list)) {
+        firePropertyChange(VALUE_PROPERTY_NAME, old, list);
+      }
+    }
+
+    public void cancel() {
+      cancelled = true;
+      queue.clear();
+      for (CompletableFuture<UploadValue> future : running) {
+        future.cancel(true);
+      }
+      running.clear();
+      fireCompleted();
+    }
+  }
 }
 
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads a http resource to a file. If the connection breaks, the
+ * download is retried according to a {@link RetryPolicy}. The bytes already
+ * received are kept and only the rest is requested with a {@code Range}
+ * header. An {@code If-Range} header with the {@code ETag} or
+ * {@code Last-Modified} date of the first response makes sure the parts
+ * belong to the same version of the resource. If the server answers with
+ * the complete resource instead, the download starts over.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 21:35
+ */
+final class ResumableDownload {
+  private static final Logger log = LoggerFactory.getLogger(ResumableDownload.class);
+
+  private static final Pattern contentRange = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+  private final HttpFetcher fetcher;
+  private final URL url;
+  private final File file;
+  private final RetryPolicy retryPolicy;
+  private final Utils.Progress progress;
+  private final ContentDigest.Hasher hasher;
+
+  private long received;
+  private long total = -1;
+  private String validator;
+
+  ResumableDownload(HttpFetcher fetcher, URL url, File file, RetryPolicy retryPolicy, CopyProgressListener listener,
+                    ContentDigest.Hasher hasher) {
+    this.fetcher = fetcher;
+    this.url = url;
+    this.file = file;
+    this.retryPolicy = retryPolicy;
+    this.progress = new Utils.Progress(url, -1, listener);
+    this.hasher = hasher;
+  }
+
+  public void run() throws IOException {
+    try (FileChannel dest = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      int retry = 0;
+      while (true) {
+        try {
+          attempt(dest);
+          return;
+        } catch (InterruptedIOException e) {
+          throw e;
+        } catch (IOException e) {
+          if (e instanceof HttpFetcher.HttpStatusException && !((HttpFetcher.HttpStatusException) e).isRetryable()) {
+            throw e;
+          }
+          if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Download of " + url + " has been interrupted");
+          }
+          if (retry >= retryPolicy.getMaxRetries()) {
+            throw e;
+          }
+          long delay = retryPolicy.getDelay(retry++);
+          log.info("Download of " + url + " failed after " + received + " bytes, retrying in " + delay + "ms: " + e);
+          sleep(delay);
+        }
+      }
+    }
+  }
+
+  private void attempt(FileChannel dest) throws IOException {
+    Map<String, String> headers = new HashMap<String, String>();
+    boolean resume = received > 0 && validator != null;
+    if (resume) {
+      headers.put("Range", "bytes=" + received + "-");
+      headers.put("If-Range", validator);
+    }
+    try (HttpFetcher.Response response = fetcher.get(url, headers)) {
+      int code = response.getStatus();
+      if (resume && code == HttpURLConnection.HTTP_PARTIAL && isContinuation(response.getHeader("Content-Range"))) {
+        dest.position(received);
+      } else if (code == HttpURLConnection.HTTP_OK) {
+        if (received > 0) {
+          log.debug("Server sent the complete resource, restarting download of " + url);
+        }
+        restart(dest);
+        total = response.getContentLength();
+        validator = getValidator(response);
+        progress.setTotal(total);
+      } else {
+        throw new HttpFetcher.HttpStatusException(url, code);
+      }
+      ReadableByteChannel src = Channels.newChannel(response.getBody());
+      try {
+        Utils.copy(src, dest, progress, hasher);
+      } finally {
+        //the bytes written so far are kept, also if the connection broke
+        received = dest.position();
+      }
+      if (total >= 0 && received < total) {
+        throw new IOException("Connection closed after " + received + " of " + total + " bytes");
+      }
+    }
+  }
+
+  /**
+   * Whether the partial response starts where the file ends.
+   */
+  private boolean isContinuation(String range) {
+    if (range == null) {
+      return false;
+    }
+    Matcher m = contentRange.matcher(range.trim());
+    return m.matches() && Long.parseLong(m.group(1)) == received;
+  }
+
+  private void restart(FileChannel dest) throws IOException {
+    received = 0;
+    dest.truncate(0);
+    dest.position(0);
+    progress.reset();
+    if (hasher != null) {
+      hasher.reset();
+    }
+  }
+
+  /**
+   * Returns a strong ETag or the last modified date. Weak ETags must not
+   * be used with {@code If-Range}.
+   */
+  private static String getValidator(HttpFetcher.Response response) {
+    String etag = response.getHeader("ETag");
+    if (etag != null && !etag.startsWith("W/")) {
+      return etag;
+    }
+    return response.getHeader("Last-Modified");
+  }
+
+  private void sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Download of " + url + " has been interrupted");
+    }
+  }
+}
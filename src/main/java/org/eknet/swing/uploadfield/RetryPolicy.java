@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+/**
+ * Decides how often and after which delay a failed download is retried.
+ * The delay doubles with each retry, up to a maximum.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 21:30
+ */
+public final class RetryPolicy {
+
+  /**
+   * Does not retry at all.
+   */
+  public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+  /**
+   * Retries three times, after 0.5, 1 and 2 seconds.
+   */
+  public static final RetryPolicy DEFAULT = new RetryPolicy(3, 500, 5000);
+
+  private final int maxRetries;
+  private final long initialDelay;
+  private final long maxDelay;
+
+  /**
+   * @param maxRetries how often to retry after the first attempt failed
+   * @param initialDelay milliseconds to wait before the first retry
+   * @param maxDelay the maximum milliseconds to wait before a retry
+   */
+  public RetryPolicy(int maxRetries, long initialDelay, long maxDelay) {
+    if (maxRetries < 0 || initialDelay < 0 || maxDelay < 0) {
+      throw new IllegalArgumentException("Retry settings must not be negative");
+    }
+    this.maxRetries = maxRetries;
+    this.initialDelay = initialDelay;
+    this.maxDelay = maxDelay;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Returns the milliseconds to wait before the given retry.
+   *
+   * @param retry the number of the retry, starting at 0
+   * @return
+   */
+  public long getDelay(int retry) {
+    long delay = initialDelay;
+    for (int i = 0; i < retry && delay < maxDelay; i++) {
+      delay *= 2;
+    }
+    return Math.min(delay, maxDelay);
+  }
+
+  @Override
+  public String toString() {
+    return "RetryPolicy{" +
+            "maxRetries=" + maxRetries +
+            ", initialDelay=" + initialDelay +
+            ", maxDelay=" + maxDelay +
+            '}';
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+/**
+ * The algorithm used to scale images down to the preview size.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 12:20
+ */
+public enum ScaleMode {
+
+  /**
+   * Averages all source pixels that are covered by a target pixel. This
+   * is done in one pass over the pixel data and does not create any
+   * intermediate images.
+   */
+  AREA_AVERAGING,
+
+  /**
+   * Like {@link #AREA_AVERAGING}, but large images are split into stripes
+   * of target rows that are computed in parallel on a fork/join pool. Images
+   * below the parallel threshold are scaled on the calling thread.
+   */
+  PARALLEL_AREA_AVERAGING,
+
+  /**
+   * Halves the image repeatedly with bilinear interpolation until the
+   * target size is reached. This creates an intermediate image for
+   * each step.
+   */
+  MULTI_STEP_BILINEAR
+
+}
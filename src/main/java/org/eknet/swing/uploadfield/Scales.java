@@ -20,6 +20,9 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -30,16 +33,69 @@ import org.jetbrains.annotations.NotNull;
 class Scales {
 
   /**
-   * Scales the image using {@link #getScaledInstance(java.awt.image.BufferedImage, int, int, Object, boolean)} if the size of
-   * the image exceeds the specified boundaries. The image is scaled proportional. If the image is within the
-   * specified boundaries it is returned.
+   * The default number of source pixels above which images are scaled in
+   * parallel in {@link ScaleMode#PARALLEL_AREA_AVERAGING} mode.
+   */
+  public static final long DEFAULT_PARALLEL_THRESHOLD = 4000000L;
+
+  private static ForkJoinPool pool;
+
+  /**
+   * Scratch buffers for {@link #areaAverage(java.awt.image.BufferedImage, int, int)}. They
+   * grow as needed and are reused for subsequent calls on the same thread.
+   */
+  private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch();
+    }
+  };
+
+  /**
+   * Scales the image using {@link ScaleMode#AREA_AVERAGING} if the size of the image
+   * exceeds the specified boundaries.
    *
    * @param image
    * @param maxWidth
    * @param maxHeight
    * @return
+   * @see #scaleIfNecessary(java.awt.image.BufferedImage, int, int, ScaleMode)
    */
   public static BufferedImage scaleIfNecessary(@NotNull BufferedImage image, final int maxWidth, final int maxHeight) {
+    return scaleIfNecessary(image, maxWidth, maxHeight, ScaleMode.AREA_AVERAGING);
+  }
+
+  /**
+   * Scales the image using the given mode if the size of the image exceeds the specified
+   * boundaries. The image is scaled proportional. If the image is within the specified
+   * boundaries it is returned.
+   *
+   * @param image
+   * @param maxWidth
+   * @param maxHeight
+   * @param mode
+   * @return
+   */
+  public static BufferedImage scaleIfNecessary(@NotNull BufferedImage image, final int maxWidth, final int maxHeight,
+                                               @NotNull ScaleMode mode) {
+    return scaleIfNecessary(image, maxWidth, maxHeight, mode, DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * Scales the image using the given mode if the size of the image exceeds the specified
+   * boundaries. The image is scaled proportional. If the image is within the specified
+   * boundaries it is returned.
+   *
+   * @param image
+   * @param maxWidth
+   * @param maxHeight
+   * @param mode
+   * @param parallelThreshold the number of source pixels from which on the image is scaled
+   *                          in parallel, if {@code mode} is {@link ScaleMode#PARALLEL_AREA_AVERAGING}
+   * @return
+   */
+  public static BufferedImage scaleIfNecessary(@NotNull BufferedImage image, final int maxWidth, final int maxHeight,
+                                               @NotNull ScaleMode mode, long parallelThreshold) {
     int h = image.getHeight();
     int w = image.getWidth();
     if (h > maxHeight || w > maxWidth) {
@@ -48,16 +104,271 @@ class Scales {
       if (dw > dh) {
         float factor = (maxWidth * 1.0f) / w;
         int nh = (int) Math.floor(h * factor);
-        return getScaledInstance(image, maxWidth, nh, RenderingHints.VALUE_INTERPOLATION_BILINEAR, true);
+        return scale(image, maxWidth, Math.max(1, nh), mode, parallelThreshold);
       } else {
         float factor = (maxHeight * 1.0f) / h;
         int nw = (int) Math.floor(w * factor);
-        return getScaledInstance(image, nw, maxHeight, RenderingHints.VALUE_INTERPOLATION_BILINEAR, true);
+        return scale(image, Math.max(1, nw), maxHeight, mode, parallelThreshold);
       }
     }
     return image;
   }
 
+  private static BufferedImage scale(BufferedImage image, int width, int height, ScaleMode mode, long parallelThreshold) {
+    if (mode == ScaleMode.MULTI_STEP_BILINEAR || width > image.getWidth() || height > image.getHeight()) {
+      return getScaledInstance(image, width, height, RenderingHints.VALUE_INTERPOLATION_BILINEAR, true);
+    }
+    if (mode == ScaleMode.PARALLEL_AREA_AVERAGING
+            && (long) image.getWidth() * image.getHeight() >= parallelThreshold) {
+      return parallelAreaAverage(image, width, height);
+    }
+    return areaAverage(image, width, height);
+  }
+
+  /**
+   * Scales the image down to the given size by averaging all source pixels that
+   * are covered by a target pixel, weighted by the covered area. Colors are
+   * weighted by their alpha value, so transparent pixels do not darken the result.
+   * <p/>
+   * The image is processed row by row in a single pass, only the target image is
+   * allocated. The target size must not be larger than the source size.
+   *
+   * @param src
+   * @param width
+   * @param height
+   * @return
+   */
+  public static BufferedImage areaAverage(@NotNull BufferedImage src, int width, int height) {
+    boolean alpha = src.getTransparency() != Transparency.OPAQUE;
+    BufferedImage dst = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    Scratch buffers = scratch.get();
+    buffers.columns = Scratch.ensure(buffers.columns, src.getWidth());
+    buffers.weights = Scratch.ensure(buffers.weights, src.getWidth());
+    mapAxis(src.getWidth(), width, buffers.columns, buffers.weights);
+    areaAverageRows(src, dst, 0, height, buffers.columns, buffers.weights, buffers);
+    return dst;
+  }
+
+  /**
+   * Like {@link #areaAverage(java.awt.image.BufferedImage, int, int)}, but the target
+   * rows are split into stripes that are computed in parallel. Each stripe reads the
+   * source rows it covers, rows on a stripe boundary are read by both stripes.
+   *
+   * @param src
+   * @param width
+   * @param height
+   * @return
+   */
+  public static BufferedImage parallelAreaAverage(@NotNull BufferedImage src, int width, int height) {
+    boolean alpha = src.getTransparency() != Transparency.OPAQUE;
+    BufferedImage dst = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    int[] columns = new int[src.getWidth()];
+    float[] weights = new float[src.getWidth()];
+    mapAxis(src.getWidth(), width, columns, weights);
+    ForkJoinPool pool = getPool();
+    int stripeRows = Math.max(1, height / (pool.getParallelism() * 4));
+    pool.invoke(new StripeTask(src, dst, 0, height, stripeRows, columns, weights));
+    return dst;
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool();
+    }
+    return pool;
+  }
+
+  /**
+   * Maps each source position to the first target position it contributes to. Every
+   * source pixel has a total weight of {@code dstLength / srcLength}; the part that is
+   * stored in {@code weights} belongs to the target position in {@code index}, the
+   * remainder to the next one.
+   *
+   * @param srcLength
+   * @param dstLength
+   * @param index
+   * @param weights
+   */
+  static void mapAxis(int srcLength, int dstLength, int[] index, float[] weights) {
+    double scale = (double) dstLength / srcLength;
+    for (int i = 0; i < srcLength; i++) {
+      double start = i * scale;
+      double end = (i + 1) * scale;
+      int d = (int) start;
+      if (d >= dstLength - 1 || end <= d + 1) {
+        index[i] = Math.min(d, dstLength - 1);
+        weights[i] = (float) scale;
+      } else {
+        index[i] = d;
+        weights[i] = (float) (d + 1 - start);
+      }
+    }
+  }
+
+  /**
+   * Computes the target rows from {@code dy0} (inclusive) to {@code dy1} (exclusive)
+   * by reading all source rows that are covered by them.
+   *
+   * @param src
+   * @param dst
+   * @param dy0
+   * @param dy1
+   * @param columns the column mapping as computed by {@link #mapAxis(int, int, int[], float[])}
+   * @param columnWeights
+   * @param buffers
+   */
+  static void areaAverageRows(BufferedImage src, BufferedImage dst, int dy0, int dy1,
+                              int[] columns, float[] columnWeights, Scratch buffers) {
+    int sw = src.getWidth();
+    int sh = src.getHeight();
+    int dw = dst.getWidth();
+    int dh = dst.getHeight();
+    boolean alpha = src.getTransparency() != Transparency.OPAQUE;
+    float scaleX = (float) dw / sw;
+    double scaleY = (double) dh / sh;
+
+    int n = dw * 4;
+    buffers.pixels = Scratch.ensure(buffers.pixels, sw);
+    buffers.out = Scratch.ensure(buffers.out, dw);
+    buffers.row = Scratch.ensure(buffers.row, n);
+    buffers.current = Scratch.ensure(buffers.current, n);
+    buffers.next = Scratch.ensure(buffers.next, n);
+    float[] row = buffers.row;
+    float[] current = buffers.current;
+    float[] next = buffers.next;
+    Arrays.fill(current, 0, n, 0f);
+    Arrays.fill(next, 0, n, 0f);
+    float currentWeight = 0f;
+    float nextWeight = 0f;
+    int currentRow = dy0;
+
+    int sy0 = Math.max(0, (int) Math.floor(dy0 / scaleY));
+    int sy1 = Math.min(sh, (int) Math.ceil(dy1 / scaleY));
+    for (int y = sy0; y < sy1; y++) {
+      double start = y * scaleY;
+      double end = (y + 1) * scaleY;
+      int d = (int) start;
+      float w0;
+      float w1;
+      if (d >= dh - 1 || end <= d + 1) {
+        d = Math.min(d, dh - 1);
+        w0 = (float) scaleY;
+        w1 = 0f;
+      } else {
+        w0 = (float) (d + 1 - start);
+        w1 = (float) (scaleY - w0);
+      }
+      if (d >= dy1 || (d < dy0 && (d + 1 != dy0 || w1 == 0f))) {
+        continue;
+      }
+      readRow(src, y, buffers.pixels);
+      reduceRow(buffers.pixels, sw, columns, columnWeights, scaleX, alpha, row, n);
+      if (d < dy0) {
+        //only the lower part of this source row belongs to the first target row
+        accumulate(current, row, w1, n);
+        currentWeight += w1;
+        continue;
+      }
+      while (d > currentRow) {
+        emitRow(dst, currentRow, current, currentWeight, alpha, buffers.out);
+        float[] tmp = current;
+        current = next;
+        next = tmp;
+        Arrays.fill(next, 0, n, 0f);
+        currentWeight = nextWeight;
+        nextWeight = 0f;
+        currentRow++;
+      }
+      accumulate(current, row, w0, n);
+      currentWeight += w0;
+      if (w1 > 0f && d + 1 < dy1) {
+        accumulate(next, row, w1, n);
+        nextWeight += w1;
+      }
+    }
+    while (currentRow < dy1) {
+      emitRow(dst, currentRow, current, currentWeight, alpha, buffers.out);
+      float[] tmp = current;
+      current = next;
+      next = tmp;
+      Arrays.fill(next, 0, n, 0f);
+      currentWeight = nextWeight;
+      nextWeight = 0f;
+      currentRow++;
+    }
+  }
+
+  private static void readRow(BufferedImage src, int y, int[] pixels) {
+    int type = src.getType();
+    if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+      src.getRaster().getDataElements(0, y, src.getWidth(), 1, pixels);
+    } else {
+      src.getRGB(0, y, src.getWidth(), 1, pixels, 0, src.getWidth());
+    }
+  }
+
+  /**
+   * Reduces one source row to the target width. The result holds four values per
+   * target pixel: alpha and the alpha weighted red, green and blue values.
+   */
+  private static void reduceRow(int[] pixels, int width, int[] columns, float[] columnWeights,
+                                float scaleX, boolean alpha, float[] row, int n) {
+    Arrays.fill(row, 0, n, 0f);
+    int last = n - 4;
+    for (int x = 0; x < width; x++) {
+      int p = pixels[x];
+      float a = alpha ? (p >>> 24) : 255f;
+      if (a == 0f) {
+        continue;
+      }
+      float r = ((p >> 16) & 0xff) * a;
+      float g = ((p >> 8) & 0xff) * a;
+      float b = (p & 0xff) * a;
+      int i = columns[x] * 4;
+      float w0 = columnWeights[x];
+      row[i] += w0 * a;
+      row[i + 1] += w0 * r;
+      row[i + 2] += w0 * g;
+      row[i + 3] += w0 * b;
+      float w1 = scaleX - w0;
+      if (w1 > 0f && i < last) {
+        row[i + 4] += w1 * a;
+        row[i + 5] += w1 * r;
+        row[i + 6] += w1 * g;
+        row[i + 7] += w1 * b;
+      }
+    }
+  }
+
+  private static void accumulate(float[] target, float[] row, float weight, int n) {
+    for (int i = 0; i < n; i++) {
+      target[i] += row[i] * weight;
+    }
+  }
+
+  private static void emitRow(BufferedImage dst, int y, float[] acc, float rowWeight, boolean alpha, int[] out) {
+    int width = dst.getWidth();
+    for (int x = 0; x < width; x++) {
+      int i = x * 4;
+      float a = acc[i];
+      if (a <= 0f) {
+        out[x] = 0;
+        continue;
+      }
+      int r = clamp(acc[i + 1] / a);
+      int g = clamp(acc[i + 2] / a);
+      int b = clamp(acc[i + 3] / a);
+      int outAlpha = alpha && rowWeight > 0f ? clamp(a / rowWeight) : 0xff;
+      out[x] = outAlpha << 24 | r << 16 | g << 8 | b;
+    }
+    dst.getRaster().setDataElements(0, y, width, 1, out);
+  }
+
+  private static int clamp(float v) {
+    int i = Math.round(v);
+    return i < 0 ? 0 : (i > 255 ? 255 : i);
+  }
+
   /**
    * Note, found this code on <a href="http://today.java.net/pub/a/today/2007/04/03/perils-of-image-getscaledinstance.html">this post</a>
    * by <a href="http://today.java.net/pub/au/60">Chris Campbell</a>.
@@ -134,4 +445,54 @@ class Scales {
     return ret;
   }
 
+  private static final class StripeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final BufferedImage src;
+    private final BufferedImage dst;
+    private final int dy0;
+    private final int dy1;
+    private final int stripeRows;
+    private final int[] columns;
+    private final float[] weights;
+
+    StripeTask(BufferedImage src, BufferedImage dst, int dy0, int dy1, int stripeRows, int[] columns, float[] weights) {
+      this.src = src;
+      this.dst = dst;
+      this.dy0 = dy0;
+      this.dy1 = dy1;
+      this.stripeRows = stripeRows;
+      this.columns = columns;
+      this.weights = weights;
+    }
+
+    @Override
+    protected void compute() {
+      if (dy1 - dy0 <= stripeRows) {
+        areaAverageRows(src, dst, dy0, dy1, columns, weights, scratch.get());
+      } else {
+        int mid = dy0 + (dy1 - dy0) / 2;
+        invokeAll(new StripeTask(src, dst, dy0, mid, stripeRows, columns, weights),
+                new StripeTask(src, dst, mid, dy1, stripeRows, columns, weights));
+      }
+    }
+  }
+
+  static final class Scratch {
+    int[] pixels = new int[0];
+    int[] out = new int[0];
+    int[] columns = new int[0];
+    float[] weights = new float[0];
+    float[] row = new float[0];
+    float[] current = new float[0];
+    float[] next = new float[0];
+
+    static int[] ensure(int[] buffer, int size) {
+      return buffer.length >= size ? buffer : new int[size];
+    }
+
+    static float[] ensure(float[] buffer, int size) {
+      return buffer.length >= size ? buffer : new float[size];
+    }
+  }
 }
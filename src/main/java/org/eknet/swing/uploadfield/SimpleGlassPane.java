@@ -22,31 +22,150 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
+import javax.swing.Action;
+import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.Timer;
+
+import org.jetbrains.annotations.Nullable;
 
 /**
  * This is the default glass pane used with the {@link UploadField} component.
+ * <p/>
+ * It shows the progress of downloading a remote resource: the bytes copied,
+ * the percentage if the size is known and the throughput. Progress is reported
+ * from the loader thread and displayed by a timer at a fixed rate, so fast
+ * transfers do not flood the EDT.
  * 
  * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
  * @since 01.10.11 18:30
  */
-public class SimpleGlassPane extends JPanel {
+public class SimpleGlassPane extends JPanel implements CopyProgressListener {
+
+  /**
+   * Milliseconds between two updates of the progress display.
+   */
+  private static final int UPDATE_INTERVAL = 100;
+
   private Color color1;
   private Color color2;
+  private GradientPaint fill;
+
+  private final JProgressBar progressBar = new JProgressBar(0, 100);
+  private final JLabel detailLabel = new JLabel(" ");
+  private final JButton cancelButton = new JButton();
+
+  private final Timer timer = new Timer(UPDATE_INTERVAL, new ActionListener() {
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      updateProgress();
+    }
+  });
+
+  private volatile long bytes;
+  private volatile long total = -1;
+  private volatile long bytesPerSecond;
+  private volatile boolean changed;
 
   public SimpleGlassPane() {
     this.color1 = new Color(0, 0, 0, 175);
     this.color2 = new Color(0, 0, 0, 120);
+    this.timer.setCoalesce(true);
     this.setVisible(false);
 
     setLayout(new GridBagLayout());
     GridBagConstraints gbc = new GridBagConstraints();
     gbc.fill = GridBagConstraints.CENTER;
+    gbc.gridx = 0;
+    gbc.insets = new Insets(2, 2, 2, 2);
     final JLabel label = new JLabel("Loading image...");
     label.setForeground(Color.white);
     add(label, gbc);
+
+    progressBar.setIndeterminate(true);
+    add(progressBar, gbc);
+
+    detailLabel.setForeground(Color.white);
+    add(detailLabel, gbc);
+
+    cancelButton.setVisible(false);
+    add(cancelButton, gbc);
+  }
+
+  /**
+   * Sets the action of the cancel button. The button is hidden if
+   * the action is {@code null}.
+   *
+   * @param action
+   */
+  public void setCancelAction(@Nullable Action action) {
+    cancelButton.setAction(action);
+    cancelButton.setVisible(action != null);
+  }
+
+  @Nullable
+  public Action getCancelAction() {
+    return cancelButton.getAction();
+  }
+
+  /**
+   * Records the progress, which is shown with the next update.
+   * This may be called from any thread.
+   */
+  @Override
+  public void progress(long bytes, long total, long bytesPerSecond) {
+    this.bytes = bytes;
+    this.total = total;
+    this.bytesPerSecond = bytesPerSecond;
+    this.changed = true;
+  }
+
+  /**
+   * Clears the progress display.
+   */
+  public void resetProgress() {
+    bytes = 0;
+    total = -1;
+    bytesPerSecond = 0;
+    changed = false;
+    progressBar.setIndeterminate(true);
+    progressBar.setValue(0);
+    detailLabel.setText(" ");
+  }
+
+  private void updateProgress() {
+    if (!changed) {
+      return;
+    }
+    changed = false;
+    long total = this.total;
+    long bytes = this.bytes;
+    StringBuilder buf = new StringBuilder(Utils.toSizeString(bytes));
+    if (total > 0) {
+      int percent = (int) Math.min(100, bytes * 100 / total);
+      progressBar.setIndeterminate(false);
+      progressBar.setValue(percent);
+      buf.append(" of ").append(Utils.toSizeString(total)).append(" (").append(percent).append("%)");
+    }
+    buf.append(", ").append(Utils.toSizeString(bytesPerSecond)).append("/s");
+    detailLabel.setText(buf.toString());
+  }
+
+  @Override
+  public void setVisible(boolean flag) {
+    super.setVisible(flag);
+    if (flag) {
+      resetProgress();
+      timer.start();
+    } else {
+      timer.stop();
+    }
   }
 
   @Override
@@ -56,7 +175,9 @@ public class SimpleGlassPane extends JPanel {
       return;
     }
     Graphics2D g2d = (Graphics2D) g;
-    GradientPaint fill = new GradientPaint(0, 0, color1, 0, getHeight(), color2);
+    if (fill == null || fill.getPoint2().getY() != getHeight()) {
+      fill = new GradientPaint(0, 0, color1, 0, getHeight(), color2);
+    }
     g2d.setPaint(fill);
     g2d.fillRect(0, 0, getWidth(), getHeight());
 
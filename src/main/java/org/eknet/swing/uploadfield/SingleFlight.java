@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Makes sure that only one computation per key is in progress. Callers that
+ * ask for a key while it is computed get a future of that computation's
+ * result, instead of starting their own.
+ * <p/>
+ * Each caller gets its own future. Cancelling it, or letting it time out,
+ * only cancels the computation if no other caller is waiting for it
+ * anymore. A failure of the computation, including a timeout of its own,
+ * is passed to all callers.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 16:40
+ */
+final class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, Call> calls = new ConcurrentHashMap<K, Call>();
+
+  /**
+   * Returns a future of the computation for the given key. If none is in
+   * progress, the supplier is asked to start one.
+   *
+   * @param key
+   * @param computation
+   * @return
+   */
+  @NotNull
+  public CompletableFuture<V> execute(@NotNull K key, @NotNull Supplier<CompletableFuture<V>> computation) {
+    while (true) {
+      Call call = new Call(key);
+      Call running = calls.putIfAbsent(key, call);
+      if (running == null) {
+        CompletableFuture<V> result = call.join();
+        call.start(computation);
+        return result;
+      }
+      CompletableFuture<V> result = running.join();
+      if (result != null) {
+        return result;
+      }
+      //all callers have left this one, it is being cancelled
+      calls.remove(key, running);
+    }
+  }
+
+  /**
+   * Returns the number of computations in progress.
+   *
+   * @return
+   */
+  public int size() {
+    return calls.size();
+  }
+
+  private final class Call {
+    private final K key;
+    private final CompletableFuture<V> shared = new CompletableFuture<V>();
+    private int callers;
+    private boolean abandoned;
+
+    private Call(K key) {
+      this.key = key;
+    }
+
+    private void start(Supplier<CompletableFuture<V>> computation) {
+      shared.whenComplete(new BiConsumer<V, Throwable>() {
+        @Override
+        public void accept(V value, Throwable throwable) {
+          calls.remove(key, Call.this);
+        }
+      });
+      CompletableFuture<V> future;
+      try {
+        future = computation.get();
+      } catch (RuntimeException e) {
+        shared.completeExceptionally(e);
+        return;
+      }
+      Utils.cancelWith(shared, future);
+      Utils.completeWith(shared, future);
+    }
+
+    /**
+     * Adds a caller and returns its future, or {@code null} if the
+     * computation has been abandoned already.
+     */
+    private synchronized CompletableFuture<V> join() {
+      if (abandoned) {
+        return null;
+      }
+      callers++;
+      final CompletableFuture<V> result = new CompletableFuture<V>();
+      Utils.completeWith(result, shared);
+      result.whenComplete(new BiConsumer<V, Throwable>() {
+        @Override
+        public void accept(V value, Throwable throwable) {
+          if (throwable != null && !shared.isDone()) {
+            leave();
+          }
+        }
+      });
+      return result;
+    }
+
+    private synchronized void leave() {
+      callers--;
+      if (callers == 0 && !shared.isDone()) {
+        abandoned = true;
+        shared.cancel(true);
+      }
+    }
+  }
+}
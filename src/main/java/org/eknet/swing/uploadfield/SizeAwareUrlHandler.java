@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link UrlHandler} that is told the size of the preview that is going
+ * to be created from its image. This allows to decode a smaller image
+ * right away instead of creating a full sized image that is scaled down
+ * afterwards.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 10:12
+ */
+public interface SizeAwareUrlHandler extends UrlHandler {
+
+  /**
+   * Creates an image from the specified url that is used to create
+   * a preview of at most {@code maxSize}. The returned image may be
+   * larger than {@code maxSize}, it is scaled down as necessary.
+   *
+   * @param url
+   * @param maxSize
+   * @return
+   * @throws IOException
+   */
+  @Nullable
+  BufferedImage createImage(@NotNull URL url, @NotNull Dimension maxSize) throws IOException;
+
+}
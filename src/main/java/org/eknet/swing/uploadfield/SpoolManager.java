@@ -0,0 +1,424 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Manages the local copies of remote resources.
+ * <p/>
+ * Copies are stored in one directory and named by the hash of their content,
+ * so that loading the same content twice reuses the existing file. Upload fields
+ * {@link #acquire(java.io.File) acquire} the file of their current value and
+ * {@link #release(java.io.File) release} it when the value is replaced or removed.
+ * Files that are not referenced anymore are kept for reuse until the directory
+ * grows beyond its quota; then the least recently used ones are deleted.
+ * <p/>
+ * When the manager is created, files that are older than the
+ * {@link #getMaxAge() maximum age} and incomplete downloads of previous runs
+ * are deleted in the background.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 19:55
+ */
+public class SpoolManager {
+  private static final Logger log = LoggerFactory.getLogger(SpoolManager.class);
+
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+  public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * Unreferenced files are not deleted while they are younger than this,
+   * since the value that is going to reference them may still be loading.
+   */
+  private static final long GRACE_PERIOD = TimeUnit.MINUTES.toMillis(1);
+
+  private static final String PART_PREFIX = "part-";
+
+  private static final int MAX_COPIES = 1024;
+
+  private static final ContentDigest SHA1 = ContentDigest.messageDigest("SHA-1");
+
+  private static final FileFilter partFilter = new FileFilter() {
+    @Override
+    public boolean accept(File f) {
+      return f.isFile() && f.getName().startsWith(PART_PREFIX);
+    }
+  };
+
+  private static final FileFilter spoolFilter = new FileFilter() {
+    @Override
+    public boolean accept(File f) {
+      return f.isFile() && !f.getName().startsWith(PART_PREFIX);
+    }
+  };
+
+  private static SpoolManager defaultManager;
+
+  private final File directory;
+  private volatile long maxBytes;
+  private volatile long maxAge = DEFAULT_MAX_AGE;
+
+  private final Map<File, Integer> references = new HashMap<File, Integer>();
+
+  /**
+   * The spooled copies of remote resources by their {@link ThumbnailCache.Key#getVersion() version}.
+   */
+  private final Map<String, Copy> copies = new LinkedHashMap<String, Copy>(64, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Copy> eldest) {
+      return size() > MAX_COPIES;
+    }
+  };
+
+  private final ExecutorService sweeper = Executors.newSingleThreadExecutor(Utils.daemonThreadFactory("spool-sweeper"));
+
+  public SpoolManager(@NotNull File directory, long maxBytes) {
+    this.directory = directory.getAbsoluteFile();
+    this.maxBytes = maxBytes;
+    sweeper.execute(new Runnable() {
+      @Override
+      public void run() {
+        sweep();
+      }
+    });
+  }
+
+  /**
+   * Creates a manager that uses {@link #getDefaultDirectory()}.
+   */
+  public SpoolManager() {
+    this(getDefaultDirectory(), DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Returns the manager that is used by all fields that have no other
+   * manager set.
+   *
+   * @return
+   */
+  @NotNull
+  public static synchronized SpoolManager getDefault() {
+    if (defaultManager == null) {
+      defaultManager = new SpoolManager();
+    }
+    return defaultManager;
+  }
+
+  public static synchronized void setDefault(@NotNull SpoolManager manager) {
+    defaultManager = manager;
+  }
+
+  /**
+   * Returns a directory below the system's temp directory that is
+   * specific to the current user.
+   *
+   * @return
+   */
+  @NotNull
+  public static File getDefaultDirectory() {
+    String user = System.getProperty("user.name", "default").replaceAll("[^A-Za-z0-9._-]", "_");
+    return new File(System.getProperty("java.io.tmpdir"), "swing-uploadfield-" + user + File.separator + "spool");
+  }
+
+  /**
+   * Creates an empty file in the spool directory to download a resource
+   * into. It must be passed to {@link #store(java.io.File, String)} when
+   * complete, or deleted otherwise.
+   *
+   * @return
+   * @throws IOException
+   */
+  @NotNull
+  public File createPartFile() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create spool directory: " + directory);
+    }
+    return File.createTempFile(PART_PREFIX, ".tmp", directory);
+  }
+
+  /**
+   * Moves the downloaded file to its final name, which is made of the hash
+   * of its content and the given extension. If a file with the same content
+   * exists already, the downloaded file is deleted and the existing one is
+   * returned.
+   *
+   * @param part a file created by {@link #createPartFile()}
+   * @param extension the file extension without the dot, may be {@code null}
+   * @return
+   * @throws IOException
+   */
+  @NotNull
+  public File store(@NotNull File part, @Nullable String extension) throws IOException {
+    return store(part, extension, null);
+  }
+
+  /**
+   * Like {@link #store(java.io.File, String)}, but uses the given hash of the
+   * file's content, if it has been computed while downloading. Only hashes of
+   * {@link ContentDigest#isCryptographic() cryptographic} digests are used to
+   * identify content, otherwise the file is hashed again.
+   *
+   * @param part
+   * @param extension
+   * @param hash the hash of the file's content, may be {@code null}
+   * @return
+   * @throws IOException
+   */
+  @NotNull
+  public File store(@NotNull File part, @Nullable String extension, @Nullable ContentHash hash) throws IOException {
+    String name = hash != null && hash.isCryptographic() && hash.getSize() == part.length()
+            ? hash.getHex()
+            : ContentHash.of(part, SHA1).getHex();
+    if (extension != null && extension.matches("[A-Za-z0-9]{1,10}")) {
+      name += "." + extension.toLowerCase();
+    }
+    File file = new File(directory, name);
+    synchronized (this) {
+      if (file.isFile() && file.length() == part.length()) {
+        Files.delete(part.toPath());
+        file.setLastModified(System.currentTimeMillis());
+      } else {
+        try {
+          Files.move(part.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    }
+    trim();
+    return file;
+  }
+
+  /**
+   * Remembers the file as the copy of the given version of a remote
+   * resource, so that it can be reused without downloading the resource
+   * again.
+   *
+   * @param version
+   * @param file a file returned by {@link #store(java.io.File, String, ContentHash)}
+   * @param hash the hash of the file's content, may be {@code null}
+   */
+  synchronized void remember(@NotNull String version, @NotNull File file, @Nullable ContentHash hash) {
+    copies.put(version, new Copy(file, hash));
+  }
+
+  /**
+   * Returns the copy of the given version of a remote resource, if it
+   * is still in the spool directory.
+   *
+   * @param version
+   * @return
+   */
+  @Nullable
+  synchronized Copy findCopy(@NotNull String version) {
+    Copy copy = copies.get(version);
+    if (copy == null) {
+      return null;
+    }
+    if (!copy.getFile().isFile()) {
+      copies.remove(version);
+      return null;
+    }
+    //protects it from being trimmed before it is acquired
+    copy.getFile().setLastModified(System.currentTimeMillis());
+    return copy;
+  }
+
+  /**
+   * Marks the file as being used. Files outside the spool directory are
+   * ignored.
+   *
+   * @param file
+   */
+  public synchronized void acquire(@Nullable File file) {
+    if (isSpooled(file)) {
+      File key = file.getAbsoluteFile();
+      Integer count = references.get(key);
+      references.put(key, count == null ? 1 : count + 1);
+    }
+  }
+
+  /**
+   * Marks the file as not being used by one holder anymore. If no holder is
+   * left, the file may be deleted when the spool exceeds its quota.
+   *
+   * @param file
+   */
+  public void release(@Nullable File file) {
+    if (!isSpooled(file)) {
+      return;
+    }
+    synchronized (this) {
+      File key = file.getAbsoluteFile();
+      Integer count = references.get(key);
+      if (count == null) {
+        return;
+      }
+      if (count > 1) {
+        references.put(key, count - 1);
+        return;
+      }
+      references.remove(key);
+      //kept for reuse, files released long ago are deleted first
+      file.setLastModified(System.currentTimeMillis());
+    }
+    trim();
+  }
+
+  public synchronized int getReferenceCount(@Nullable File file) {
+    Integer count = file != null ? references.get(file.getAbsoluteFile()) : null;
+    return count != null ? count : 0;
+  }
+
+  private boolean isSpooled(@Nullable File file) {
+    return file != null && directory.equals(file.getAbsoluteFile().getParentFile());
+  }
+
+  /**
+   * Deletes unreferenced files, least recently used first, until the
+   * directory is not larger than the quota.
+   */
+  private synchronized void trim() {
+    File[] files = directory.listFiles(spoolFilter);
+    if (files == null) {
+      return;
+    }
+    long size = 0;
+    for (File f : files) {
+      size += f.length();
+    }
+    if (size <= maxBytes) {
+      return;
+    }
+    sortByLastModified(files);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < files.length && size > maxBytes; i++) {
+      File f = files[i];
+      if (references.containsKey(f.getAbsoluteFile()) || now - f.lastModified() < GRACE_PERIOD) {
+        continue;
+      }
+      long length = f.length();
+      if (f.delete()) {
+        size -= length;
+      }
+    }
+  }
+
+  /**
+   * Deletes unreferenced files older than the maximum age and leftovers of
+   * incomplete downloads, then trims the directory to the quota.
+   */
+  public void sweep() {
+    long now = System.currentTimeMillis();
+    File[] parts = directory.listFiles(partFilter);
+    if (parts != null) {
+      for (File f : parts) {
+        if (now - f.lastModified() > maxAge) {
+          f.delete();
+        }
+      }
+    }
+    synchronized (this) {
+      File[] files = directory.listFiles(spoolFilter);
+      if (files != null) {
+        for (File f : files) {
+          if (!references.containsKey(f.getAbsoluteFile()) && now - f.lastModified() > maxAge) {
+            f.delete();
+          }
+        }
+      }
+    }
+    trim();
+  }
+
+  private static void sortByLastModified(File[] files) {
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        long m1 = o1.lastModified();
+        long m2 = o2.lastModified();
+        return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+      }
+    });
+  }
+
+  @NotNull
+  public File getDirectory() {
+    return directory;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * Sets the age in milliseconds after which unreferenced files are deleted
+   * by {@link #sweep()}.
+   *
+   * @param maxAge
+   */
+  public void setMaxAge(long maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  static final class Copy {
+    private final File file;
+    private final ContentHash hash;
+
+    Copy(File file, ContentHash hash) {
+      this.file = file;
+      this.hash = hash;
+    }
+
+    File getFile() {
+      return file;
+    }
+
+    @Nullable
+    ContentHash getHash() {
+      return hash;
+    }
+  }
+}
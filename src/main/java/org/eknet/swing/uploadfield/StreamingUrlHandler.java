@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link UrlHandler} that can create its image from a stream of the
+ * resource's content. This allows to decode a remote resource while it
+ * is downloaded, see {@link UploadField#setStreamingDecode(boolean)}.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 19:20
+ */
+public interface StreamingUrlHandler extends UrlHandler {
+
+  /**
+   * Creates an image from the given stream, which delivers the content
+   * of the resource as it arrives. The stream must not be closed, it is
+   * read to the end afterwards.
+   *
+   * @param in
+   * @param mimeType the type sniffed from the first bytes, or {@code null}
+   * @param maxSize the size of the preview that is created from the image
+   * @return the image or {@code null} if this handler cannot read the stream
+   * @throws IOException
+   */
+  @Nullable
+  BufferedImage createImage(@NotNull InputStream in, @Nullable String mimeType, @NotNull Dimension maxSize) throws IOException;
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes all bytes that are read from the underlying stream to an output
+ * stream and passes them to a hasher, if given. Closing this stream closes
+ * both streams.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 19:24
+ */
+final class TeeInputStream extends FilterInputStream {
+
+  private final OutputStream out;
+  private final Utils.Progress progress;
+  private final ContentDigest.Hasher hasher;
+
+  TeeInputStream(InputStream in, OutputStream out, Utils.Progress progress, ContentDigest.Hasher hasher) {
+    super(in);
+    this.out = out;
+    this.progress = progress;
+    this.hasher = hasher;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b != -1) {
+      out.write(b);
+      if (hasher != null) {
+        hasher.add((byte) b);
+      }
+      progress.add(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = super.read(b, off, len);
+    if (n > 0) {
+      out.write(b, off, n);
+      if (hasher != null) {
+        hasher.add(b, off, n);
+      }
+      progress.add(n);
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    //skipped bytes must be copied as well
+    byte[] buffer = new byte[(int) Math.min(n, 8192)];
+    int read = read(buffer, 0, buffer.length);
+    return Math.max(read, 0);
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  /**
+   * Reads the remaining bytes, so that all of them are copied.
+   *
+   * @throws IOException
+   */
+  public void drain() throws IOException {
+    byte[] buffer = new byte[64 * 1024];
+    while (read(buffer, 0, buffer.length) != -1) {
+      //copied by read
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A memory cache for preview images that is shared by all upload fields.
+ * <p/>
+ * Images are cached by their url (the canonical one for local files), the preview size and the last-modified
+ * date and length of the resource, so a changed file is not served from
+ * the cache. The cache is bounded by the number of bytes of all cached
+ * images; the least recently used images are evicted first.
+ * <p/>
+ * Cached images are shared and must not be modified.
+ * <p/>
+ * The last-modified date and length of remote resources are remembered for
+ * a short time, see {@link #setValidatorTtl(long)}, so that loading the same
+ * url again right away does not send another HEAD request.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 13:48
+ */
+public final class ThumbnailCache {
+
+  public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+  public static final long DEFAULT_VALIDATOR_TTL = 10000;
+
+  private static final int MAX_VALIDATORS = 1024;
+
+  private static final ThumbnailCache shared = new ThumbnailCache(DEFAULT_MAX_BYTES);
+
+  /**
+   * The last-modified date and length of remote resources by their url.
+   */
+  private static final Map<String, Validators> validators = Collections.synchronizedMap(
+          new LinkedHashMap<String, Validators>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Validators> eldest) {
+              return size() > MAX_VALIDATORS;
+            }
+          });
+
+  private static volatile long validatorTtl = DEFAULT_VALIDATOR_TTL;
+
+  private final LinkedHashMap<Key, BufferedImage> images = new LinkedHashMap<Key, BufferedImage>(64, 0.75f, true);
+
+  private long maxBytes;
+  private long bytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public ThumbnailCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the cache that is used by all upload fields by default.
+   *
+   * @return
+   */
+  @NotNull
+  public static ThumbnailCache getShared() {
+    return shared;
+  }
+
+  @Nullable
+  synchronized BufferedImage get(@NotNull Key key) {
+    BufferedImage image = images.get(key);
+    if (image != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return image;
+  }
+
+  synchronized void put(@NotNull Key key, @NotNull BufferedImage image) {
+    long size = sizeOf(image);
+    if (size > maxBytes) {
+      return;
+    }
+    BufferedImage old = images.put(key, image);
+    if (old != null) {
+      bytes -= sizeOf(old);
+    }
+    bytes += size;
+    evict();
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Key, BufferedImage>> iter = images.entrySet().iterator();
+    while (bytes > maxBytes && iter.hasNext()) {
+      Map.Entry<Key, BufferedImage> entry = iter.next();
+      bytes -= sizeOf(entry.getValue());
+      iter.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  public synchronized void clear() {
+    images.clear();
+    bytes = 0;
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  /**
+   * Returns the number of bytes of all images in this cache.
+   *
+   * @return
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized int getSize() {
+    return images.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public static long getValidatorTtl() {
+    return validatorTtl;
+  }
+
+  /**
+   * Sets for how many milliseconds the last-modified date and length of a
+   * remote resource are used without asking the server again. A change of
+   * the resource within this time is not noticed. {@code 0} asks the server
+   * each time.
+   *
+   * @param millis
+   */
+  public static void setValidatorTtl(long millis) {
+    validatorTtl = millis;
+    if (millis <= 0) {
+      validators.clear();
+    }
+  }
+
+  static long sizeOf(BufferedImage image) {
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+  }
+
+  /**
+   * Creates a cache key for the given url. For local files the last-modified date
+   * and length are taken from the file system, other urls are asked with a HEAD
+   * request if possible, unless they have been asked within the
+   * {@link #setValidatorTtl(long) validator ttl}. Remote resources without a
+   * last-modified date are not cached, since a change could not be detected.
+   *
+   * @param url
+   * @param size
+   * @param handlers a string identifying the handlers creating the image
+   * @return the key or {@code null} if the resource cannot be accessed or
+   * has no last-modified date
+   */
+  @Nullable
+  static Key createKey(@NotNull URL url, @NotNull Dimension size, @NotNull String handlers) {
+    long lastModified;
+    long length;
+    if (url.getProtocol().equals("file")) {
+      File file = Utils.toFile(url);
+      if (!file.exists()) {
+        return null;
+      }
+      try {
+        file = file.getCanonicalFile();
+      } catch (IOException e) {
+        return null;
+      }
+      lastModified = file.lastModified();
+      length = file.length();
+      return new Key(file.toURI().toString(), true, size.width, size.height, lastModified, length, handlers);
+    } else {
+      String resource = url.toString();
+      long ttl = validatorTtl;
+      Validators known = ttl > 0 ? validators.get(resource) : null;
+      if (known != null && System.currentTimeMillis() - known.checked < ttl) {
+        return new Key(resource, false, size.width, size.height, known.lastModified, known.length, handlers);
+      }
+      try {
+        if (HttpFetcher.isSupported(url)) {
+          HttpFetcher.Response response = HttpFetcher.getDefault().head(url);
+          if (!response.hasContent()) {
+            return null;
+          }
+          lastModified = response.getLastModified();
+          length = response.getContentLength();
+        } else {
+          URLConnection conn = url.openConnection();
+          try {
+            lastModified = conn.getLastModified();
+            length = conn.getContentLengthLong();
+          } finally {
+            close(conn);
+          }
+        }
+      } catch (IOException e) {
+        return null;
+      }
+      if (lastModified <= 0) {
+        return null;
+      }
+      if (ttl > 0) {
+        validators.put(resource, new Validators(lastModified, length));
+      }
+      return new Key(resource, false, size.width, size.height, lastModified, length, handlers);
+    }
+  }
+
+  /**
+   * Closes the stream the connection has opened to read the headers.
+   */
+  private static void close(URLConnection conn) {
+    if (conn instanceof HttpURLConnection) {
+      ((HttpURLConnection) conn).disconnect();
+      return;
+    }
+    try {
+      conn.getInputStream().close();
+    } catch (IOException e) {
+      //not opened or already gone
+    }
+  }
+
+  private static final class Validators {
+    private final long lastModified;
+    private final long length;
+    private final long checked = System.currentTimeMillis();
+
+    private Validators(long lastModified, long length) {
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
+
+  static final class Key {
+    private final String resource;
+    private final boolean local;
+    private final int width;
+    private final int height;
+    private final long lastModified;
+    private final long length;
+    private final String handlers;
+
+    Key(String resource, boolean local, int width, int height, long lastModified, long length, String handlers) {
+      this.resource = resource;
+      this.local = local;
+      this.width = width;
+      this.height = height;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.handlers = handlers;
+    }
+
+    /**
+     * Whether the key denotes a file in the local file system.
+     *
+     * @return
+     */
+    boolean isLocal() {
+      return local;
+    }
+
+    /**
+     * Identifies the resource in the version this key was created for,
+     * regardless of the preview size.
+     *
+     * @return
+     */
+    String getVersion() {
+      return resource + "|" + lastModified + "|" + length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Key key = (Key) o;
+
+      if (height != key.height) return false;
+      if (lastModified != key.lastModified) return false;
+      if (length != key.length) return false;
+      if (width != key.width) return false;
+      if (!handlers.equals(key.handlers)) return false;
+      if (!resource.equals(key.resource)) return false;
+
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = resource.hashCode();
+      result = 31 * result + width;
+      result = 31 * result + height;
+      result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+      result = 31 * result + (int) (length ^ (length >>> 32));
+      result = 31 * result + handlers.hashCode();
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "Key{" +
+              "resource='" + resource + '\'' +
+              ", size=" + width + "x" + height +
+              ", lastModified=" + lastModified +
+              ", length=" + length +
+              ", handlers='" + handlers + '\'' +
+              '}';
+    }
+  }
+}
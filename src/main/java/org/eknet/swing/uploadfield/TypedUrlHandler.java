@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link UrlHandler} that declares the kind of resources it can handle. It is
+ * only asked for urls whose file extension or guessed mime type it declares.
+ * Handlers that do not implement this interface are asked for all urls.
+ * <p/>
+ * Urls without a file extension are passed to all handlers. The declared types
+ * are indexed when the handler is first used. If they change after the handler
+ * has been added, the {@link #getModificationCount() modification count} must
+ * change as well, so that the urls are routed anew.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 18:10
+ */
+public interface TypedUrlHandler extends UrlHandler {
+
+  /**
+   * The file extensions this handler can handle, without the leading dot.
+   * They are compared ignoring case.
+   *
+   * @return
+   */
+  @NotNull
+  Set<String> getExtensions();
+
+  /**
+   * The mime types this handler can handle, like {@code image/png}. They
+   * are compared against the type guessed from the url's file name.
+   *
+   * @return
+   */
+  @NotNull
+  Set<String> getMimeTypes();
+
+  /**
+   * Returns a number that is incremented whenever the declared types, or
+   * other settings that change the created images, are changed. Handler
+   * lists compare it instead of the types on each request. The default
+   * returns {@code 0}, for handlers whose types never change.
+   *
+   * @return
+   */
+  default int getModificationCount() {
+    return 0;
+  }
+
+}
@@ -33,13 +33,23 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLDecoder;
+import java.net.URLConnection;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
@@ -73,6 +83,32 @@ public class UploadField extends JPanel {
 
   private static final Logger log = LoggerFactory.getLogger(UploadField.class);
 
+  /**
+   * Loads of the same resource with the same settings that are in progress
+   * at the same time share one execution, even across fields.
+   */
+  private static final SingleFlight<String, UploadValue> inFlight = new SingleFlight<String, UploadValue>();
+
+  /**
+   * Loads of the same content that are deduplicated share one decode, even
+   * if they come from different resources.
+   */
+  private static final SingleFlight<String, UploadValue> decoding = new SingleFlight<String, UploadValue>();
+
+  private static final int MAX_LOCAL_HASHES = 1024;
+
+  /**
+   * Hashes of local files by their path, last-modified date, length and
+   * digest, so that an unchanged file is not read again to hash it.
+   */
+  private static final Map<String, ContentHash> localHashes = Collections.synchronizedMap(
+          new LinkedHashMap<String, ContentHash>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ContentHash> eldest) {
+              return size() > MAX_LOCAL_HASHES;
+            }
+          });
+
   public static final String VALUE_PROPERTY_NAME = "uploadValue";
 
   private JPanel root;
@@ -102,10 +138,32 @@ public class UploadField extends JPanel {
   private final UrlHandlerList handlers = new UrlHandlerList(previewSize);
 
   private final MouseAdapter emptyMouseListener = new MouseAdapter() {};
+
+  private final Action cancelAction = new AbstractAction("Cancel") {
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      cancelLoading();
+      updateComponent(getUploadValue());
+    }
+  };
   private final KeyAdapter emptyKeyListener = new KeyAdapter() {};
 
   private UploadValue uploadValue;
 
+  /**
+   * Incremented for each new loading task. A task whose generation is not the
+   * current one has been superseded and must not touch the component.
+   * Written on the EDT, but also read by the tasks' progress listeners.
+   */
+  private volatile int loadGeneration;
+  private UrlLoadingTask loadingTask;
+  private LoaderService loaderService;
+  private boolean streamingDecode;
+  private SpoolManager spoolManager;
+  private ContentDigest contentDigest = ContentDigest.SHA256;
+  private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+  private volatile ContentLookup contentLookup;
+
   private final DocumentListener nameFieldOnTypeUpdater = new DocumentListener() {
     @Override
     public void insertUpdate(DocumentEvent e) {
@@ -319,6 +377,164 @@ public class UploadField extends JPanel {
     return this.previewSize;
   }
 
+  @NotNull
+  public ScaleMode getScaleMode() {
+    return handlers.getScaleMode();
+  }
+
+  /**
+   * Sets the algorithm that is used to scale images down to the
+   * preview size. The default is {@link ScaleMode#AREA_AVERAGING}.
+   *
+   * @param scaleMode
+   */
+  public void setScaleMode(@NotNull ScaleMode scaleMode) {
+    handlers.setScaleMode(scaleMode);
+  }
+
+  public long getParallelScaleThreshold() {
+    return handlers.getParallelScaleThreshold();
+  }
+
+  /**
+   * Sets the number of image pixels from which on images are scaled in
+   * parallel, if the scale mode is {@link ScaleMode#PARALLEL_AREA_AVERAGING}.
+   *
+   * @param pixels
+   */
+  public void setParallelScaleThreshold(long pixels) {
+    handlers.setParallelScaleThreshold(pixels);
+  }
+
+  @Nullable
+  public ThumbnailCache getThumbnailCache() {
+    return handlers.getThumbnailCache();
+  }
+
+  /**
+   * Sets the cache for preview images. By default the cache that is
+   * shared by all fields is used. Set {@code null} to disable caching.
+   *
+   * @param cache
+   */
+  public void setThumbnailCache(@Nullable ThumbnailCache cache) {
+    handlers.setThumbnailCache(cache);
+  }
+
+  @Nullable
+  public DiskThumbnailCache getDiskCache() {
+    return handlers.getDiskCache();
+  }
+
+  /**
+   * Sets a cache that stores preview images of local files on disk, so
+   * they are available after a restart. It is not used by default.
+   *
+   * @param cache
+   */
+  public void setDiskCache(@Nullable DiskThumbnailCache cache) {
+    handlers.setDiskCache(cache);
+  }
+
+  @Nullable
+  public ContentDigest getContentDigest() {
+    return contentDigest;
+  }
+
+  /**
+   * Sets the digest that is used to compute the {@link UploadValue#getContentHash()
+   * content hash} of loaded values. Remote resources are hashed while they are
+   * downloaded. Local files are only hashed if values are deduplicated by their
+   * content, since this takes another read of the file; an unchanged file is
+   * not read again for that. The default is {@link ContentDigest#SHA256},
+   * {@code null} disables hashing.
+   *
+   * @param contentDigest
+   */
+  public void setContentDigest(@Nullable ContentDigest contentDigest) {
+    this.contentDigest = contentDigest;
+  }
+
+  @NotNull
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Sets how often a broken http download is retried. The bytes received
+   * so far are kept in the part file and only the rest is requested again,
+   * if the server supports range requests. This does not apply if
+   * {@link #setStreamingDecode(boolean) streaming decode} is enabled. The
+   * default is {@link RetryPolicy#DEFAULT}.
+   *
+   * @param retryPolicy
+   */
+  public void setRetryPolicy(@NotNull RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Sets a lookup for values with the same content. If it finds a value for
+   * the content hash of a loaded resource, the resource is not decoded and
+   * the preview and metadata of the found value are used.
+   *
+   * @param lookup
+   */
+  /* package private */ void setContentLookup(@Nullable ContentLookup lookup) {
+    this.contentLookup = lookup;
+  }
+
+  @NotNull
+  public SpoolManager getSpoolManager() {
+    return spoolManager != null ? spoolManager : SpoolManager.getDefault();
+  }
+
+  /**
+   * Sets the manager that stores local copies of remote resources. If
+   * {@code null}, the {@link SpoolManager#getDefault() default} manager
+   * is used.
+   *
+   * @param spoolManager
+   */
+  public void setSpoolManager(@Nullable SpoolManager spoolManager) {
+    this.spoolManager = spoolManager;
+  }
+
+  public boolean isStreamingDecode() {
+    return streamingDecode;
+  }
+
+  /**
+   * If enabled, remote images are decoded while they are downloaded instead
+   * of after the download completed. This needs a {@link StreamingUrlHandler},
+   * like the {@link ImageHandler}. It is disabled by default.
+   *
+   * @param streamingDecode
+   */
+  public void setStreamingDecode(boolean streamingDecode) {
+    this.streamingDecode = streamingDecode;
+  }
+
+  @NotNull
+  public LoaderService getLoaderService() {
+    return loaderService != null ? loaderService : LoaderService.getDefault();
+  }
+
+  /**
+   * Sets the service that runs the loading tasks of this field and its
+   * proposals list. If {@code null}, the {@link LoaderService#getDefault() default}
+   * service is used. Use {@link LoaderService#newVirtualThreadService()} to
+   * load on virtual threads.
+   *
+   * @param loaderService
+   */
+  public void setLoaderService(@Nullable LoaderService loaderService) {
+    this.loaderService = loaderService;
+    if (iconViewer != null) {
+      iconViewer.setLoaderService(loaderService);
+    }
+  }
+
   public void addUrlHandler(UrlHandler handler) {
     if (handler != null) {
       handlers.addHandler(handler);
@@ -370,6 +586,9 @@ public class UploadField extends JPanel {
       this.glassPane.addMouseListener(emptyMouseListener);
       this.glassPane.addKeyListener(emptyKeyListener);
       this.glassPane.setVisible(visible);
+      if (this.glassPane instanceof SimpleGlassPane) {
+        ((SimpleGlassPane) this.glassPane).setCancelAction(cancelAction);
+      }
     }
   }
 
@@ -380,6 +599,7 @@ public class UploadField extends JPanel {
     this.iconViewer = iconList;
     if (this.iconViewer != null) {
       this.iconViewer.addListSelectionListener(iconPreviewSelectionListener);
+      this.iconViewer.setLoaderService(loaderService);
     }
     proposalsButton.setVisible(this.iconViewer != null);
   }
@@ -415,19 +635,46 @@ public class UploadField extends JPanel {
     boolean loading = false;
     if (uploadValue != null && uploadValue.getResource() != null) {
       if (old == null || (!uploadValue.getResource().equals(old.getResource()))) {
-        new UrlLoadingTask(uploadValue).execute();
+        startLoading(uploadValue);
         loading = true;
       }
     }
     if (!loading) {
+      cancelLoading();
       if (!Utils.nullSafeEquals(uploadValue, old)) {
-        this.uploadValue = uploadValue;
+        replaceValue(uploadValue);
         firePropertyChange(VALUE_PROPERTY_NAME, old, uploadValue);
       }
       updateComponent(this.uploadValue);
     }
   }
 
+  /**
+   * Starts loading the given value, cancelling the task that is currently
+   * in progress.
+   *
+   * @param value
+   */
+  private void startLoading(UploadValue value) {
+    cancelLoading();
+    loadingTask = new UrlLoadingTask(value, ++loadGeneration);
+    loadingTask.start();
+  }
+
+  /**
+   * Cancels the current loading task, if any. Its result is dropped.
+   */
+  private void cancelLoading() {
+    if (loadingTask != null) {
+      loadGeneration++;
+      loadingTask.cancel();
+      loadingTask = null;
+      if (getGlassPane() != null) {
+        getGlassPane().setVisible(false);
+      }
+    }
+  }
+
   public void setMessage(String message, boolean isError) {
     if (isError) {
       messageLabel.setForeground(errorMessageColor);
@@ -498,6 +745,448 @@ public class UploadField extends JPanel {
   }
 
 
+  /**
+   * Loads the resource of the given value and sets the file, image, icon and
+   * description on it. The name is set, if the value has none. Downloading
+   * and blocking handlers run on the {@link #getLoaderService() loader service},
+   * while {@link AsyncUrlHandler}s run on their own without occupying a
+   * loader thread. The future completes on whatever thread finished the
+   * last step.
+   * <p/>
+   * If the same resource is being loaded with the same preview size and
+   * handlers at the same time, the result of that load is used. Cancelling
+   * the future cancels loading, unless another caller waits for it.
+   *
+   * @param value
+   * @param listener receives the progress of downloading remote resources, may be
+   * {@code null}. If the resource is loaded by another caller already, no progress
+   * is reported.
+   * @return a future of the given value
+   */
+  /* package private */ CompletableFuture<UploadValue> loadValue(final UploadValue value,
+                                                                 final CopyProgressListener listener) {
+    if (DefaultUploadValue.isNullOrEmpty(value)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    final URL url = value.getResource();
+    final Dimension size = new Dimension(previewSize);
+    final ContentDigest digest = contentDigest;
+    final ContentLookup lookup = contentLookup;
+    //loads with another lookup may share other previews
+    String key = Utils.normalize(url) + "@" + size.width + "x" + size.height + ";" + handlers.getSignature()
+            + ";" + digest + ";" + (lookup != null ? Integer.toHexString(System.identityHashCode(lookup)) : "-");
+    CompletableFuture<UploadValue> loaded = inFlight.execute(key, new Supplier<CompletableFuture<UploadValue>>() {
+      @Override
+      public CompletableFuture<UploadValue> get() {
+        return loadResource(url, size, digest, lookup, listener);
+      }
+    });
+    CompletableFuture<UploadValue> result = new CompletableFuture<UploadValue>();
+    Utils.cancelWith(result, loaded);
+    Utils.completeWith(result, loaded.thenApply(new Function<UploadValue, UploadValue>() {
+      @Override
+      public UploadValue apply(UploadValue loaded) {
+        value.setFile(loaded.getFile());
+        value.setContentHash(loaded.getContentHash());
+        value.setImageInfo(loaded.getImageInfo());
+        value.setImage(loaded.getImage());
+        value.setIcon(loaded.getIcon());
+        if (value.getName() == null) {
+          value.setName(loaded.getName());
+        }
+        value.setDescription(loaded.getDescription());
+        return value;
+      }
+    }));
+    return result;
+  }
+
+  /**
+   * Loads the given resource asynchronously on the {@link #getLoaderService() loader
+   * service}. The same pipeline is used as when setting a value, but the
+   * state of this field is not changed. The returned stage completes on a
+   * background thread, not on the EDT.
+   *
+   * @param url
+   * @return
+   */
+  @NotNull
+  public CompletionStage<UploadValue> loadAsync(@NotNull URL url) {
+    return submitLoad(url);
+  }
+
+  /**
+   * Like {@link #loadAsync(java.net.URL)}, but the stage completes with a
+   * {@link java.util.concurrent.TimeoutException} if loading takes longer
+   * than the given time. Loading is cancelled then.
+   *
+   * @param url
+   * @param timeout
+   * @param unit
+   * @return
+   */
+  @NotNull
+  public CompletionStage<UploadValue> loadAsync(@NotNull URL url, long timeout, @NotNull TimeUnit unit) {
+    return submitLoad(url).orTimeout(timeout, unit);
+  }
+
+  /**
+   * Loads all given resources asynchronously. The returned stage completes
+   * with the values in the order of the urls, once all are loaded. If one
+   * fails, the others are cancelled and the stage completes exceptionally.
+   *
+   * @param urls
+   * @return
+   */
+  @NotNull
+  public CompletionStage<List<UploadValue>> loadAllAsync(@NotNull Collection<URL> urls) {
+    return submitLoadAll(urls);
+  }
+
+  /**
+   * Like {@link #loadAllAsync(java.util.Collection)}, but the stage completes
+   * with a {@link java.util.concurrent.TimeoutException} if loading all
+   * resources takes longer than the given time. The loads still running are cancelled then.
+   *
+   * @param urls
+   * @param timeout
+   * @param unit
+   * @return
+   */
+  @NotNull
+  public CompletionStage<List<UploadValue>> loadAllAsync(@NotNull Collection<URL> urls, long timeout, @NotNull TimeUnit unit) {
+    return submitLoadAll(urls).orTimeout(timeout, unit);
+  }
+
+  private CompletableFuture<UploadValue> submitLoad(URL url) {
+    return loadValue(new DefaultUploadValue(url), null);
+  }
+
+  private CompletableFuture<List<UploadValue>> submitLoadAll(Collection<URL> urls) {
+    final List<CompletableFuture<UploadValue>> futures = new ArrayList<CompletableFuture<UploadValue>>(urls.size());
+    for (URL url : urls) {
+      futures.add(submitLoad(url));
+    }
+    final CompletableFuture<List<UploadValue>> result = new CompletableFuture<List<UploadValue>>();
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+        .whenComplete(new BiConsumer<Void, Throwable>() {
+          @Override
+          public void accept(Void v, Throwable throwable) {
+            //failures complete the result directly, see below
+            if (throwable != null) {
+              return;
+            }
+            List<UploadValue> values = new ArrayList<UploadValue>(futures.size());
+            for (CompletableFuture<UploadValue> future : futures) {
+              values.add(future.join());
+            }
+            result.complete(values);
+          }
+        });
+    for (CompletableFuture<UploadValue> future : futures) {
+      future.whenComplete(new BiConsumer<UploadValue, Throwable>() {
+        @Override
+        public void accept(UploadValue value, Throwable throwable) {
+          if (throwable != null) {
+            result.completeExceptionally(throwable);
+          }
+        }
+      });
+    }
+    result.whenComplete(new BiConsumer<List<UploadValue>, Throwable>() {
+      @Override
+      public void accept(List<UploadValue> values, Throwable throwable) {
+        if (throwable != null) {
+          for (CompletableFuture<UploadValue> future : futures) {
+            future.cancel(true);
+          }
+        }
+      }
+    });
+    return result;
+  }
+
+  private CompletableFuture<UploadValue> loadResource(final URL url, final Dimension size, final ContentDigest digest,
+                                                      final ContentLookup lookup, final CopyProgressListener listener) {
+    final LoaderService loader = getLoaderService();
+    final CompletableFuture<UploadValue> result = new CompletableFuture<UploadValue>();
+    CompletableFuture<Fetched> fetched = loader.submit(new Callable<Fetched>() {
+      @Override
+      public Fetched call() throws Exception {
+        return fetch(url, size, digest, lookup, listener);
+      }
+    });
+    Utils.cancelWith(result, fetched);
+    Utils.completeWith(result, fetched.thenCompose(new Function<Fetched, CompletionStage<UploadValue>>() {
+      @Override
+      public CompletionStage<UploadValue> apply(final Fetched fetched) {
+        final UploadValue value = fetched.value;
+        if (fetched.complete) {
+          return CompletableFuture.completedFuture(value);
+        }
+        if (fetched.existing != null) {
+          return CompletableFuture.completedFuture(share(value, fetched.existing));
+        }
+        CompletableFuture<UploadValue> decoded;
+        ContentHash hash = value.getContentHash();
+        if (lookup == null || hash == null || !hash.isCryptographic()) {
+          decoded = decode(value, fetched.image, fetched.key, size, loader);
+        } else {
+          //the first load of this content decodes it, others at the same time wait for it
+          String contentKey = hash + "@" + size.width + "x" + size.height + ";" + handlers.getSignature();
+          decoded = decoding.execute(contentKey, new Supplier<CompletableFuture<UploadValue>>() {
+            @Override
+            public CompletableFuture<UploadValue> get() {
+              return decode(value, fetched.image, fetched.key, size, loader);
+            }
+          });
+        }
+        Utils.cancelWith(result, decoded);
+        return decoded.thenApply(new Function<UploadValue, UploadValue>() {
+          @Override
+          public UploadValue apply(UploadValue decoded) {
+            return decoded == value ? value : share(value, decoded);
+          }
+        });
+      }
+    }));
+    return result;
+  }
+
+  /**
+   * Fetches the resource on a loader thread. Remote resources are downloaded
+   * to the spool directory, local files are used as they are. If the content
+   * is hashed, a value with the same content is looked up.
+   *
+   * @return the fetched value, which is complete already if it could be built
+   * from the spooled copy and the cached preview
+   */
+  private Fetched fetch(URL url, Dimension size, ContentDigest digest, ContentLookup lookup,
+                        CopyProgressListener listener) throws Exception {
+    UploadValue value = new DefaultUploadValue(url);
+    BufferedImage image = null;
+    //created before downloading, no other request to the host may be open then
+    ThumbnailCache.Key key = handlers.createKey(url, size);
+    if (!url.getProtocol().equals("file")) {
+      SpoolManager spool = getSpoolManager();
+      UploadValue cached = loadCached(url, key, size, digest, spool);
+      if (cached != null) {
+        return new Fetched(cached, null, key, null, true);
+      }
+      //keep the extension, handlers may look at it
+      String ext = Utils.getExtension(url);
+      File part = spool.createPartFile();
+      //the content is hashed while it is copied
+      ContentDigest.Hasher hasher = digest != null ? digest.newHasher() : null;
+      try {
+        if (streamingDecode) {
+          image = spoolAndDecode(key, url, part, size, listener, hasher);
+        } else {
+          Utils.copy(url, part, listener, hasher, retryPolicy);
+        }
+        ContentHash hash = hasher != null ? hasher.finish() : null;
+        value.setContentHash(hash);
+        value.setFile(spool.store(part, ext, hash));
+        if (key != null) {
+          spool.remember(key.getVersion(), value.getFile(), hash);
+        }
+      } finally {
+        //still there, if the download failed
+        part.delete();
+      }
+    } else {
+      value.setFile(Utils.toFile(url));
+      //only needed to find duplicates, since it takes another read of the file
+      if (digest != null && lookup != null) {
+        value.setContentHash(hashLocalFile(value.getFile(), digest));
+      }
+    }
+    checkInterrupted(url);
+    ContentHash hash = value.getContentHash();
+    UploadValue existing = null;
+    if (lookup != null && hash != null) {
+      existing = lookup.find(hash);
+      //other contents may have the same hash, like with CRC32
+      if (existing != null && !hash.isCryptographic() && !Utils.sameContent(existing.getFile(), value.getFile())) {
+        existing = null;
+      }
+    }
+    return new Fetched(value, image, key, existing, false);
+  }
+
+  /**
+   * Creates the preview of the value's file, unless the image has been
+   * decoded while downloading already, and then describes the value.
+   *
+   * @return a future of the given value
+   */
+  private CompletableFuture<UploadValue> decode(final UploadValue value, BufferedImage image, ThumbnailCache.Key key,
+                                                final Dimension size, final LoaderService loader) {
+    final CompletableFuture<UploadValue> result = new CompletableFuture<UploadValue>();
+    CompletableFuture<BufferedImage> decoded;
+    if (image != null) {
+      decoded = CompletableFuture.completedFuture(image);
+    } else {
+      URL source;
+      try {
+        source = value.getFile().toURI().toURL();
+      } catch (MalformedURLException e) {
+        result.completeExceptionally(e);
+        return result;
+      }
+      //handlers read the local file, the resource is not fetched again
+      decoded = handlers.createImageAsync(key, value.getResource(), source, size, loader);
+      Utils.cancelWith(result, decoded);
+    }
+    Utils.completeWith(result, decoded.thenCompose(new Function<BufferedImage, CompletionStage<UploadValue>>() {
+      @Override
+      public CompletionStage<UploadValue> apply(final BufferedImage image) {
+        CompletableFuture<UploadValue> described = loader.submit(new Callable<UploadValue>() {
+          @Override
+          public UploadValue call() throws Exception {
+            describe(value, image, size);
+            return value;
+          }
+        });
+        Utils.cancelWith(result, described);
+        return described;
+      }
+    }));
+    return result;
+  }
+
+  /**
+   * Sets the image info, preview, name and description of a decoded value.
+   */
+  private void describe(UploadValue value, BufferedImage image, Dimension size) throws InterruptedException {
+    URL url = value.getResource();
+    value.setImageInfo(ImageInfo.read(value.getFile()));
+    checkInterrupted(url);
+    setPreview(value, image, size);
+    value.setName(handlers.getName(url));
+    value.setDescription(handlers.getDescription(value));
+  }
+
+  /**
+   * Sets the preview and metadata of a value with the same content, that has
+   * been loaded already, on the given value.
+   *
+   * @return the given value
+   */
+  private UploadValue share(UploadValue value, UploadValue existing) {
+    value.setImageInfo(existing.getImageInfo());
+    value.setImage(existing.getImage());
+    value.setIcon(existing.getIcon());
+    value.setName(handlers.getName(value.getResource()));
+    value.setDescription(existing.getDescription());
+    return value;
+  }
+
+  /**
+   * Creates the value from the spooled copy and the cached preview of a
+   * remote resource, if both are still there. The resource is then neither
+   * downloaded nor decoded again.
+   *
+   * @return the value or {@code null} if the resource must be loaded
+   */
+  private UploadValue loadCached(URL url, ThumbnailCache.Key key, Dimension size, ContentDigest digest,
+                                 SpoolManager spool) throws IOException {
+    if (key == null) {
+      return null;
+    }
+    SpoolManager.Copy copy = spool.findCopy(key.getVersion());
+    BufferedImage image = copy != null ? handlers.getCached(key) : null;
+    if (image == null) {
+      return null;
+    }
+    UploadValue value = new DefaultUploadValue(url);
+    value.setFile(copy.getFile());
+    ContentHash hash = copy.getHash();
+    if (digest != null && (hash == null || !hash.getAlgorithm().equals(digest.getAlgorithm()))) {
+      hash = ContentHash.of(copy.getFile(), digest);
+    }
+    value.setContentHash(digest != null ? hash : null);
+    value.setImageInfo(ImageInfo.read(copy.getFile()));
+    setPreview(value, image, size);
+    value.setName(handlers.getName(url));
+    value.setDescription(handlers.getDescription(value));
+    return value;
+  }
+
+  private static ContentHash hashLocalFile(File file, ContentDigest digest) throws IOException {
+    String key = file.getCanonicalPath() + "|" + file.lastModified() + "|" + file.length() + "|" + digest;
+    ContentHash hash = localHashes.get(key);
+    if (hash == null) {
+      hash = ContentHash.of(file, digest);
+      localHashes.put(key, hash);
+    }
+    return hash;
+  }
+
+  private void setPreview(UploadValue value, BufferedImage image, Dimension size) {
+    if (image != null) {
+      value.setImage(image);
+      value.setIcon(new ImageIcon(Scales.scaleIfNecessary(image, size.width, size.height,
+              handlers.getScaleMode(), handlers.getParallelScaleThreshold())));
+    } else {
+      value.setMissingIcon(size.width, size.height);
+    }
+  }
+
+  /**
+   * Downloads the resource to the file and decodes it from the incoming
+   * bytes at the same time, if its type is recognized and a streaming
+   * handler is responsible for it.
+   *
+   * @return the image or {@code null} if it was not decoded while downloading
+   */
+  private BufferedImage spoolAndDecode(ThumbnailCache.Key key, URL url, File file, Dimension size,
+                                       CopyProgressListener listener, ContentDigest.Hasher hasher) throws IOException {
+    InputStream body;
+    long length;
+    if (HttpFetcher.isSupported(url)) {
+      HttpFetcher.Response response = HttpFetcher.getDefault().get(url, Collections.<String, String>emptyMap());
+      if (!response.hasContent()) {
+        response.close();
+        throw new HttpFetcher.HttpStatusException(url, response.getStatus());
+      }
+      body = response.getBody();
+      length = response.getContentLength();
+    } else {
+      URLConnection conn = url.openConnection();
+      body = conn.getInputStream();
+      length = conn.getContentLengthLong();
+    }
+    Utils.Progress progress = new Utils.Progress(url, length, listener);
+    try (TeeInputStream tee = new TeeInputStream(body, new FileOutputStream(file), progress, hasher)) {
+      InputStream in = new BufferedInputStream(tee, 64 * 1024);
+      String mimeType = Utils.sniffMimeType(in);
+      BufferedImage image = null;
+      if (mimeType != null) {
+        image = handlers.createImage(key, url, in, mimeType, size);
+      }
+      tee.drain();
+      return image;
+    }
+  }
+
+  private static void checkInterrupted(URL url) throws InterruptedException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedException("Loading " + url + " has been cancelled");
+    }
+  }
+
+  /**
+   * Sets the current value and moves the reference to its spooled file.
+   */
+  private void replaceValue(UploadValue value) {
+    UploadValue old = this.uploadValue;
+    this.uploadValue = value;
+    SpoolManager spool = getSpoolManager();
+    spool.acquire(value != null ? value.getFile() : null);
+    spool.release(old != null ? old.getFile() : null);
+  }
+
   private DefaultUploadValue createNewOrCopy() {
     if (this.uploadValue == null) {
       return new DefaultUploadValue();
@@ -517,7 +1206,7 @@ public class UploadField extends JPanel {
       UploadValue value = createNewOrCopy();
       value.setName(text);
       UploadValue old = getUploadValue();
-      UploadField.this.uploadValue = value;
+      replaceValue(value);
       UploadField.this.firePropertyChange(VALUE_PROPERTY_NAME, old, value);
     }
   }
@@ -542,79 +1231,138 @@ public class UploadField extends JPanel {
   }
 
   /**
-   * Loads the selected url and retrieves information about the contents.
+   * Finds an already loaded value by the hash of its content. It is
+   * called on a loader thread.
    */
-  private class UrlLoadingTask extends SwingWorker<UploadValue, Void> {
+  /* package private */ interface ContentLookup {
+    @Nullable
+    UploadValue find(@NotNull ContentHash hash);
+  }
+
+  /**
+   * A value whose resource has been fetched, but that may still need to be
+   * decoded.
+   */
+  private static final class Fetched {
+    private final UploadValue value;
+    /**
+     * The image, if it has been decoded while downloading.
+     */
+    private final BufferedImage image;
+    private final ThumbnailCache.Key key;
+    /**
+     * A loaded value with the same content, if any.
+     */
+    private final UploadValue existing;
+    /**
+     * Whether the value has been built from the cache and is complete.
+     */
+    private final boolean complete;
+
+    private Fetched(UploadValue value, BufferedImage image, ThumbnailCache.Key key, UploadValue existing,
+                    boolean complete) {
+      this.value = value;
+      this.image = image;
+      this.key = key;
+      this.existing = existing;
+      this.complete = complete;
+    }
+  }
+
+  /**
+   * Loads the selected url and retrieves information about the contents. The
+   * result is passed to the component on the EDT.
+   */
+  private class UrlLoadingTask implements BiConsumer<UploadValue, Throwable> {
 
     private final UploadValue value;
+    private final int generation;
+    private volatile CompletableFuture<UploadValue> future;
 
-    public UrlLoadingTask(UploadValue value) {
+    public UrlLoadingTask(UploadValue value, int generation) {
       this.value = value;
+      this.generation = generation;
       SwingUtilities.invokeLater(new Runnable() {
         @Override
         public void run() {
-          if (getGlassPane() != null) {
+          if (getGlassPane() != null && !isStale()) {
             getGlassPane().setVisible(true);
           }
         }
       });
     }
 
-
-    @Override
-    protected UploadValue doInBackground() throws Exception {
-      if (DefaultUploadValue.isNullOrEmpty(value)) {
-        return null;
-      }
-      URL url = value.getResource();
-      if (!url.getProtocol().equals("file")) {
-        File tempFile = File.createTempFile("fileInput", ".ext");
-        tempFile.deleteOnExit();
-        Utils.copy(url, tempFile);
-        value.setFile(tempFile);
-      } else {
-        value.setFile(new File(URLDecoder.decode(url.getPath(), "UTF-8")));
-      }
-      BufferedImage image = handlers.createImage(url);
-      if (image != null) {
-        value.setImage(image);
-      }
-      if (image != null) {
-        value.setIcon(new ImageIcon(Scales.scaleIfNecessary(image, previewSize.width, previewSize.height)));
-      } else {
-        value.setMissingIcon(previewSize.width, previewSize.height);
+    private void start() {
+      final JComponent pane = getGlassPane();
+      CopyProgressListener listener = null;
+      if (pane instanceof CopyProgressListener) {
+        listener = new CopyProgressListener() {
+          @Override
+          public void progress(long bytes, long total, long bytesPerSecond) {
+            if (!isStale()) {
+              ((CopyProgressListener) pane).progress(bytes, total, bytesPerSecond);
+            }
+          }
+        };
       }
-      if (value.getName() == null) {
-        value.setName(handlers.getName(url));
+      future = loadValue(value, listener);
+      future.whenComplete(this);
+    }
+
+    private void cancel() {
+      CompletableFuture<UploadValue> f = future;
+      if (f != null) {
+        f.cancel(true);
       }
-      value.setDescription(handlers.getDescription(value));
-      return value;
+    }
+
+    /**
+     * Whether this task has been superseded by a newer one or was cancelled.
+     *
+     * @return
+     */
+    private boolean isStale() {
+      CompletableFuture<UploadValue> f = future;
+      return generation != loadGeneration || (f != null && f.isCancelled());
     }
 
     @Override
-    protected void done() {
+    public void accept(final UploadValue loaded, final Throwable error) {
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          done(loaded, error);
+        }
+      });
+    }
+
+    private void done(UploadValue loaded, Throwable error) {
+      if (generation != loadGeneration) {
+        return;
+      }
+      loadingTask = null;
       try {
+        if (error != null) {
+          setMessage(getLoadingErrorMessage(value), true);
+          //cancelled tasks have been rejected by the loader service
+          if (!(Utils.unwrap(error) instanceof CancellationException)) {
+            log.error("Error loading image!", Utils.unwrap(error));
+          }
+          return;
+        }
         UploadValue old = getUploadValue();
-        UploadValue newvValue = get();
-        UploadField.this.uploadValue = newvValue;
-        updateComponent(newvValue);
-        if (newvValue.getImage() == null) {
+        replaceValue(loaded);
+        updateComponent(loaded);
+        if (loaded.getImage() == null) {
           setMessage(getLoadingErrorMessage(value), true);
         }
-        UploadField.this.firePropertyChange(VALUE_PROPERTY_NAME, old, newvValue);
-      } catch (InterruptedException e) {
-        setMessage(getLoadingErrorMessage(value), true);
-        log.error("Error loading image!", e);
-      } catch (ExecutionException e) {
-        setMessage(getLoadingErrorMessage(value), true);
-        log.error("Error loading image!", e);
+        UploadField.this.firePropertyChange(VALUE_PROPERTY_NAME, old, loaded);
       } finally {
         if (getGlassPane() != null) {
           getGlassPane().setVisible(false);
         }
       }
     }
-
   }
 
 }
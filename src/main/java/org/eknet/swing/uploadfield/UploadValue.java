@@ -50,6 +50,51 @@ public interface UploadValue {
 
   void setFile(@Nullable File file);
 
+  /**
+   * Returns the hash of the file's content. It is computed when the
+   * value is loaded, if the upload field has a digest configured. Local
+   * files are only hashed if values are deduplicated by their content.
+   * <p/>
+   * The default returns {@code null}, values without a hash are never
+   * considered duplicates.
+   *
+   * @return
+   */
+  @Nullable
+  default ContentHash getContentHash() {
+    return null;
+  }
+
+  /**
+   * Sets the hash of the file's content. The default ignores it.
+   *
+   * @param contentHash
+   */
+  default void setContentHash(@Nullable ContentHash contentHash) {
+  }
+
+  /**
+   * Returns metadata about the image, if the resource is an image.
+   * It is read from the image header and available without decoding
+   * the image.
+   * <p/>
+   * The default returns {@code null}.
+   *
+   * @return
+   */
+  @Nullable
+  default ImageInfo getImageInfo() {
+    return null;
+  }
+
+  /**
+   * Sets the metadata about the image. The default ignores it.
+   *
+   * @param imageInfo
+   */
+  default void setImageInfo(@Nullable ImageInfo imageInfo) {
+  }
+
   Icon getIcon();
 
   void setIcon(@Nullable Icon icon);
@@ -19,10 +19,23 @@ package org.eknet.swing.uploadfield;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -34,8 +47,20 @@ import org.jetbrains.annotations.Nullable;
 class UrlHandlerList implements UrlHandler {
 
   private final List<UrlHandler> handlers = new CopyOnWriteArrayList<UrlHandler>();
+
+  /**
+   * The handlers to ask for a given extension, computed once per extension,
+   * and the signature of the handlers. Dropped when handlers are added or
+   * removed or settings of this list change, and replaced when a handler
+   * reports a modification.
+   */
+  private volatile Routes routes;
   private Dimension iconSize = new Dimension(25, 25);
   private UrlHandler fallback;
+  private ScaleMode scaleMode = ScaleMode.AREA_AVERAGING;
+  private long parallelScaleThreshold = Scales.DEFAULT_PARALLEL_THRESHOLD;
+  private ThumbnailCache thumbnailCache = ThumbnailCache.getShared();
+  private DiskThumbnailCache diskCache;
 
   UrlHandlerList(UrlHandler fallback, Dimension iconSize) {
     this.fallback = fallback;
@@ -48,14 +73,17 @@ class UrlHandlerList implements UrlHandler {
 
   public void addHandler(@NotNull UrlHandler handler) {
     this.handlers.add(handler);
+    this.routes = null;
   }
 
   public void removeHander(@NotNull UrlHandler handler) {
     this.handlers.remove(handler);
+    this.routes = null;
   }
 
   public void setFallback(@Nullable UrlHandler fallback) {
     this.fallback = fallback;
+    this.routes = null;
   }
 
   public Iterable<UrlHandler> copy() {
@@ -70,6 +98,41 @@ class UrlHandlerList implements UrlHandler {
     this.iconSize = iconSize;
   }
 
+  public ScaleMode getScaleMode() {
+    return scaleMode;
+  }
+
+  public void setScaleMode(@NotNull ScaleMode scaleMode) {
+    this.scaleMode = scaleMode;
+    this.routes = null;
+  }
+
+  public long getParallelScaleThreshold() {
+    return parallelScaleThreshold;
+  }
+
+  public void setParallelScaleThreshold(long parallelScaleThreshold) {
+    this.parallelScaleThreshold = parallelScaleThreshold;
+  }
+
+  @Nullable
+  public ThumbnailCache getThumbnailCache() {
+    return thumbnailCache;
+  }
+
+  public void setThumbnailCache(@Nullable ThumbnailCache thumbnailCache) {
+    this.thumbnailCache = thumbnailCache;
+  }
+
+  @Nullable
+  public DiskThumbnailCache getDiskCache() {
+    return diskCache;
+  }
+
+  public void setDiskCache(@Nullable DiskThumbnailCache diskCache) {
+    this.diskCache = diskCache;
+  }
+
   @Override
   public BufferedImage createImage(URL url) throws IOException {
     return createImage(url, iconSize);
@@ -79,25 +142,410 @@ class UrlHandlerList implements UrlHandler {
     if (url == null) {
       return null;
     }
+    return createImage(createKey(url, maxSize), url, url, maxSize);
+  }
+
+  /**
+   * Creates the image of {@code url}, but lets the handlers read it from
+   * {@code source}, which is a local copy of the url's resource. Handlers
+   * are chosen by the original url and the image is cached with the given
+   * key, which has been created by {@link #createKey(java.net.URL, java.awt.Dimension)}
+   * for the original url.
+   * <p/>
+   * This blocks until the image is created, also while an {@link AsyncUrlHandler}
+   * is working. Use {@link #createImageAsync(ThumbnailCache.Key, java.net.URL, java.net.URL, java.awt.Dimension, LoaderService)}
+   * to not occupy the calling thread.
+   *
+   * @param key the cache key, may be {@code null}
+   * @param url
+   * @param source
+   * @param maxSize
+   * @return
+   * @throws IOException
+   */
+  public BufferedImage createImage(@Nullable ThumbnailCache.Key key, URL url, URL source, Dimension maxSize)
+          throws IOException {
+    BufferedImage cached = getCached(key);
+    if (cached != null) {
+      return cached;
+    }
     BufferedImage image = null;
-    for (UrlHandler uh : handlers) {
-      image = uh.createImage(url);
+    for (UrlHandler uh : getHandlerChain(url)) {
+      if (uh instanceof AsyncUrlHandler) {
+        image = await(((AsyncUrlHandler) uh).createImageAsync(source, maxSize));
+      } else {
+        image = createImage(uh, source, maxSize);
+      }
       if (image != null) {
         break;
       }
     }
-    if (image == null && fallback != null) {
-      image = fallback.createImage(url);
+    return scaleAndCache(key, image, maxSize);
+  }
+
+  /**
+   * Creates the image of {@code url} from a stream of its content, if the
+   * first handler for the url is a {@link StreamingUrlHandler}. Only this
+   * handler can be asked, since the stream cannot be read twice. The key
+   * must be created before the stream is opened, because creating it may
+   * need another request to the same host.
+   *
+   * @param key the cache key, may be {@code null}
+   * @param url
+   * @param in
+   * @param mimeType
+   * @param maxSize
+   * @return the image, or {@code null} if it could not be created from the stream
+   * @throws IOException
+   */
+  public BufferedImage createImage(@Nullable ThumbnailCache.Key key, URL url, InputStream in, String mimeType,
+                                   Dimension maxSize) throws IOException {
+    List<UrlHandler> chain = getHandlerChain(url);
+    if (chain.isEmpty() || !(chain.get(0) instanceof StreamingUrlHandler)) {
+      return null;
+    }
+    BufferedImage image = ((StreamingUrlHandler) chain.get(0)).createImage(in, mimeType, maxSize);
+    return scaleAndCache(key, image, maxSize);
+  }
+
+  /**
+   * Creates the image of the given url asynchronously. Blocking handlers run on
+   * the given loader service, while async handlers run on their own. The future
+   * completes on whatever thread finished the last step. Cancelling it cancels
+   * the step in progress.
+   *
+   * @param url
+   * @param maxSize
+   * @param loader
+   * @return
+   */
+  @NotNull
+  public CompletableFuture<BufferedImage> createImageAsync(@NotNull final URL url, @NotNull final Dimension maxSize,
+                                                          @NotNull final LoaderService loader) {
+    final CompletableFuture<BufferedImage> result = new CompletableFuture<BufferedImage>();
+    CompletableFuture<ThumbnailCache.Key> keyed = submit(loader, new Callable<ThumbnailCache.Key>() {
+      @Override
+      public ThumbnailCache.Key call() throws Exception {
+        return createKey(url, maxSize);
+      }
+    }, result);
+    Utils.completeWith(result, keyed.thenCompose(new Function<ThumbnailCache.Key, CompletionStage<BufferedImage>>() {
+      @Override
+      public CompletionStage<BufferedImage> apply(ThumbnailCache.Key key) {
+        return createImageAsync(key, url, url, maxSize, loader, result);
+      }
+    }));
+    return result;
+  }
+
+  /**
+   * Like {@link #createImage(ThumbnailCache.Key, java.net.URL, java.net.URL, java.awt.Dimension)},
+   * but asynchronously, like {@link #createImageAsync(java.net.URL, java.awt.Dimension, LoaderService)}.
+   *
+   * @param key the cache key, may be {@code null}
+   * @param url
+   * @param source
+   * @param maxSize
+   * @param loader
+   * @return
+   */
+  @NotNull
+  CompletableFuture<BufferedImage> createImageAsync(@Nullable ThumbnailCache.Key key, @NotNull URL url,
+                                                   @NotNull URL source, @NotNull Dimension maxSize,
+                                                   @NotNull LoaderService loader) {
+    CompletableFuture<BufferedImage> result = new CompletableFuture<BufferedImage>();
+    Utils.completeWith(result, createImageAsync(key, url, source, maxSize, loader, result));
+    return result;
+  }
+
+  private CompletionStage<BufferedImage> createImageAsync(final ThumbnailCache.Key key, final URL url, final URL source,
+                                                          final Dimension maxSize, final LoaderService loader,
+                                                          final CompletableFuture<BufferedImage> result) {
+    CompletableFuture<BufferedImage> cached = submit(loader, new Callable<BufferedImage>() {
+      @Override
+      public BufferedImage call() throws Exception {
+        return getCached(key);
+      }
+    }, result);
+    return cached.thenCompose(new Function<BufferedImage, CompletionStage<BufferedImage>>() {
+      @Override
+      public CompletionStage<BufferedImage> apply(BufferedImage image) {
+        if (image != null) {
+          return CompletableFuture.completedFuture(image);
+        }
+        return createImage(getHandlerChain(url).iterator(), source, maxSize, loader, result)
+            .thenCompose(new Function<BufferedImage, CompletionStage<BufferedImage>>() {
+              @Override
+              public CompletionStage<BufferedImage> apply(final BufferedImage image) {
+                if (image == null) {
+                  return CompletableFuture.completedFuture(null);
+                }
+                return submit(loader, new Callable<BufferedImage>() {
+                  @Override
+                  public BufferedImage call() throws Exception {
+                    return scaleAndCache(key, image, maxSize);
+                  }
+                }, result);
+              }
+            });
+      }
+    });
+  }
+
+  /**
+   * Runs the blocking handlers of the chain on the loader until an async
+   * handler is reached, which is then asked without occupying the loader.
+   */
+  private CompletionStage<BufferedImage> createImage(final Iterator<UrlHandler> chain, final URL url,
+                                                     final Dimension maxSize, final LoaderService loader,
+                                                     final CompletableFuture<BufferedImage> result) {
+    CompletableFuture<CompletionStage<BufferedImage>> step = submit(loader, new Callable<CompletionStage<BufferedImage>>() {
+      @Override
+      public CompletionStage<BufferedImage> call() throws Exception {
+        while (chain.hasNext()) {
+          UrlHandler handler = chain.next();
+          if (handler instanceof AsyncUrlHandler) {
+            CompletableFuture<BufferedImage> image = ((AsyncUrlHandler) handler).createImageAsync(url, maxSize);
+            Utils.cancelWith(result, image);
+            return image.thenCompose(new Function<BufferedImage, CompletionStage<BufferedImage>>() {
+              @Override
+              public CompletionStage<BufferedImage> apply(BufferedImage image) {
+                if (image != null || !chain.hasNext()) {
+                  return CompletableFuture.completedFuture(image);
+                }
+                return createImage(chain, url, maxSize, loader, result);
+              }
+            });
+          }
+          BufferedImage image = createImage(handler, url, maxSize);
+          if (image != null) {
+            return CompletableFuture.completedFuture(image);
+          }
+        }
+        return CompletableFuture.completedFuture(null);
+      }
+    }, result);
+    return step.thenCompose(new Function<CompletionStage<BufferedImage>, CompletionStage<BufferedImage>>() {
+      @Override
+      public CompletionStage<BufferedImage> apply(CompletionStage<BufferedImage> stage) {
+        return stage;
+      }
+    });
+  }
+
+  /**
+   * Submits a step of creating an image to the loader. It is cancelled if
+   * the image is not needed anymore.
+   */
+  private static <T> CompletableFuture<T> submit(LoaderService loader, Callable<T> step,
+                                                 CompletableFuture<BufferedImage> result) {
+    CompletableFuture<T> future = loader.submit(step);
+    Utils.cancelWith(result, future);
+    return future;
+  }
+
+  /**
+   * Returns the handlers to ask for the given url, followed by the fallback
+   * handler.
+   *
+   * @param url
+   * @return
+   */
+  private List<UrlHandler> getHandlerChain(@Nullable URL url) {
+    List<UrlHandler> chain = new ArrayList<UrlHandler>(getHandlers(url));
+    UrlHandler fb = fallback;
+    if (fb != null) {
+      chain.add(fb);
+    }
+    return chain;
+  }
+
+  /**
+   * Returns the handlers that can handle the given url. These are the
+   * {@link TypedUrlHandler}s that declare the url's extension or the mime
+   * type of that extension and all other handlers, in the order they were
+   * added. If the url has no extension, all handlers are returned.
+   *
+   * @param url
+   * @return
+   */
+  List<UrlHandler> getHandlers(@Nullable URL url) {
+    String ext = Utils.getExtension(url);
+    if (ext == null) {
+      return handlers;
+    }
+    Routes current = getRoutes();
+    List<UrlHandler> route = current.byExtension.get(ext);
+    if (route == null) {
+      String mime = URLConnection.guessContentTypeFromName("file." + ext);
+      route = new ArrayList<UrlHandler>();
+      for (UrlHandler uh : handlers) {
+        if (!(uh instanceof TypedUrlHandler) || isHandled((TypedUrlHandler) uh, ext, mime)) {
+          route.add(uh);
+        }
+      }
+      route = Collections.unmodifiableList(route);
+      current.byExtension.putIfAbsent(ext, route);
     }
-    if (image != null) {
-      image = Scales.scaleIfNecessary(image, maxSize.width, maxSize.height);
+    return route;
+  }
+
+  private static boolean isHandled(TypedUrlHandler handler, String ext, String mime) {
+    for (String e : handler.getExtensions()) {
+      if (e.equalsIgnoreCase(ext)) {
+        return true;
+      }
+    }
+    return mime != null && handler.getMimeTypes().contains(mime);
+  }
+
+  /**
+   * Creates the key for caching the image of the given url, or returns
+   * {@code null} if no cache is set. For remote resources this sends a
+   * HEAD request.
+   *
+   * @param url
+   * @param maxSize
+   * @return
+   */
+  @Nullable
+  ThumbnailCache.Key createKey(URL url, Dimension maxSize) {
+    if (thumbnailCache != null || diskCache != null) {
+      return ThumbnailCache.createKey(url, maxSize, getSignature());
+    }
+    return null;
+  }
+
+  @Nullable
+  BufferedImage getCached(@Nullable ThumbnailCache.Key key) {
+    if (key == null) {
+      return null;
+    }
+    ThumbnailCache cache = thumbnailCache;
+    DiskThumbnailCache disk = diskCache;
+    BufferedImage cached = cache != null ? cache.get(key) : null;
+    if (cached == null && disk != null) {
+      cached = disk.get(key);
+      if (cached != null && cache != null) {
+        cache.put(key, cached);
+      }
+    }
+    return cached;
+  }
+
+  @Nullable
+  private BufferedImage scaleAndCache(@Nullable ThumbnailCache.Key key, @Nullable BufferedImage image, Dimension maxSize) {
+    if (image == null) {
+      return null;
+    }
+    image = Scales.scaleIfNecessary(image, maxSize.width, maxSize.height, scaleMode, parallelScaleThreshold);
+    if (key != null) {
+      ThumbnailCache cache = thumbnailCache;
+      DiskThumbnailCache disk = diskCache;
+      if (cache != null) {
+        cache.put(key, image);
+      }
+      if (disk != null) {
+        disk.put(key, image);
+      }
     }
     return image;
   }
 
+  private static BufferedImage await(CompletableFuture<BufferedImage> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for image");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Returns the routes for the current handlers and their settings.
+   *
+   * @return
+   */
+  private Routes getRoutes() {
+    Routes current = routes;
+    long modifications = getModificationCount();
+    if (current == null || current.modifications != modifications) {
+      current = new Routes(modifications, createSignature());
+      routes = current;
+    }
+    return current;
+  }
+
+  /**
+   * Sums the modification counts of the handlers. Since they only grow,
+   * the sum changes with each modification.
+   */
+  private long getModificationCount() {
+    long count = 0;
+    for (UrlHandler uh : handlers) {
+      if (uh instanceof TypedUrlHandler) {
+        count += ((TypedUrlHandler) uh).getModificationCount();
+      }
+    }
+    UrlHandler fb = fallback;
+    if (fb instanceof TypedUrlHandler) {
+      count += ((TypedUrlHandler) fb).getModificationCount();
+    }
+    return count;
+  }
+
+  /**
+   * Identifies the handlers of this list and their settings in the cache key,
+   * since lists with other handlers may create a different image for the same url.
+   *
+   * @return
+   */
+  String getSignature() {
+    return getRoutes().signature;
+  }
+
+  private String createSignature() {
+    StringBuilder buf = new StringBuilder(scaleMode.name());
+    for (UrlHandler uh : handlers) {
+      buf.append(',').append(getSignature(uh));
+    }
+    UrlHandler fb = fallback;
+    if (fb != null) {
+      buf.append(';').append(getSignature(fb));
+    }
+    return buf.toString();
+  }
+
+  private static String getSignature(UrlHandler handler) {
+    if (handler instanceof ImageHandler) {
+      return handler.getClass().getName() + "[" + ((ImageHandler) handler).getSignature() + "]";
+    }
+    return handler.getClass().getName();
+  }
+
+  private BufferedImage createImage(UrlHandler handler, URL url, Dimension maxSize) throws IOException {
+    if (handler instanceof SizeAwareUrlHandler) {
+      return ((SizeAwareUrlHandler) handler).createImage(url, maxSize);
+    }
+    return handler.createImage(url);
+  }
+
   @Override
   public String getName(URL url) {
-    for (UrlHandler uh : handlers) {
+    for (UrlHandler uh : getHandlers(url)) {
       String name = uh.getName(url);
       if (name != null) {
         return name;
@@ -111,7 +559,7 @@ class UrlHandlerList implements UrlHandler {
 
   @Override
   public String getDescription(UploadValue value) {
-    for (UrlHandler uh : handlers) {
+    for (UrlHandler uh : getHandlers(value != null ? value.getResource() : null)) {
       String name = uh.getDescription(value);
       if (name != null) {
         return name;
@@ -122,4 +570,18 @@ class UrlHandlerList implements UrlHandler {
     }
     return null;
   }
+
+  /**
+   * The routes computed for one configuration of the handlers.
+   */
+  private static final class Routes {
+    private final long modifications;
+    private final String signature;
+    private final ConcurrentMap<String, List<UrlHandler>> byExtension = new ConcurrentHashMap<String, List<UrlHandler>>();
+
+    private Routes(long modifications, String signature) {
+      this.modifications = modifications;
+      this.signature = signature;
+    }
+  }
 }
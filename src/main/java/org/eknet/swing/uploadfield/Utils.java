@@ -22,14 +22,29 @@ import java.awt.Graphics2D;
 import java.awt.Window;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
@@ -37,6 +52,9 @@ import java.net.URLDecoder;
  */
 final class Utils {
 
+  private static final long FILE_CHUNK_SIZE = 8 * 1024 * 1024;
+  private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
   private final static boolean mimeUtilAvailable = Utils.class.getClassLoader().getResource("eu/medsea/mimeutil/MimeUtil2.class") != null;
 
   public static String lastUrlPart(URL url) {
@@ -49,6 +67,65 @@ final class Utils {
     }
   }
 
+  /**
+   * Returns the file extension of the url's path in lower case, or
+   * {@code null} if it has none.
+   *
+   * @param url
+   * @return
+   */
+  public static String getExtension(URL url) {
+    if (url == null) {
+      return null;
+    }
+    String path = url.getPath();
+    int index = path.lastIndexOf(".");
+    if (index >= 0 && index > path.lastIndexOf('/')) {
+      return path.substring(index + 1).toLowerCase(Locale.ROOT);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the file of the given {@code file:} url.
+   *
+   * @param url
+   * @return
+   */
+  public static File toFile(URL url) {
+    try {
+      return new File(URLDecoder.decode(url.getPath(), "UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("No support for UTF-8?!", e);
+    }
+  }
+
+  /**
+   * Returns a string identifying the resource of the url, such that urls
+   * pointing to the same resource yield the same string. Local files are
+   * denoted by their canonical path.
+   *
+   * @param url
+   * @return
+   */
+  public static String normalize(URL url) {
+    if (url.getProtocol().equals("file")) {
+      try {
+        return toFile(url).getCanonicalFile().toURI().toString();
+      } catch (IOException e) {
+        return url.toExternalForm();
+      }
+    }
+    try {
+      URI uri = url.toURI().normalize();
+      String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase() : null;
+      String host = uri.getHost() != null ? uri.getHost().toLowerCase() : null;
+      return new URI(scheme, uri.getUserInfo(), host, uri.getPort(), uri.getPath(), uri.getQuery(), null).toString();
+    } catch (URISyntaxException e) {
+      return url.toExternalForm();
+    }
+  }
+
   public static boolean nullSafeEquals(Object v1, Object v2) {
     if (v1 == null && v2 == null) {
       return true;
@@ -100,16 +177,341 @@ final class Utils {
     return img;
   }
 
+  /**
+   * Opens a stream to the given resource. Http resources are fetched with
+   * the {@link HttpFetcher#getDefault() default fetcher}, so connections
+   * are reused.
+   *
+   * @param url
+   * @return
+   * @throws IOException
+   */
+  public static InputStream openStream(URL url) throws IOException {
+    if (HttpFetcher.isSupported(url)) {
+      return HttpFetcher.getDefault().openStream(url);
+    }
+    return url.openStream();
+  }
+
   public static void copy(URL in, File out) throws IOException {
-    InputStream is = in.openStream();
-    OutputStream os = new FileOutputStream(out);
-    byte[] buffer = new byte[4096];
-    int len;
-    while ((len = is.read(buffer)) != -1) {
-      os.write(buffer, 0, len);
-    }
-    os.close();
-    is.close();
+    copy(in, out, null);
+  }
+
+  /**
+   * Copies the resource of the given url to the file. Local files are
+   * transferred channel to channel, other resources are read through a
+   * direct buffer. The copy is aborted with an {@link InterruptedIOException},
+   * if the current thread is interrupted.
+   *
+   * @param in
+   * @param out
+   * @param listener notified after each chunk, may be {@code null}
+   * @throws IOException
+   */
+  public static void copy(URL in, File out, CopyProgressListener listener) throws IOException {
+    copy(in, out, listener, null);
+  }
+
+  /**
+   * Like {@link #copy(java.net.URL, java.io.File, CopyProgressListener)}, but also
+   * passes all bytes to the given hasher. Local files are then read through a
+   * buffer, since the bytes of a channel transfer cannot be inspected.
+   *
+   * @param in
+   * @param out
+   * @param listener may be {@code null}
+   * @param hasher may be {@code null}
+   * @throws IOException
+   */
+  static void copy(URL in, File out, CopyProgressListener listener, ContentDigest.Hasher hasher) throws IOException {
+    copy(in, out, listener, hasher, RetryPolicy.NONE);
+  }
+
+  /**
+   * Like {@link #copy(java.net.URL, java.io.File, CopyProgressListener, ContentDigest.Hasher)},
+   * but http downloads that break off are resumed according to the given policy.
+   *
+   * @param in
+   * @param out
+   * @param listener may be {@code null}
+   * @param hasher may be {@code null}
+   * @param retryPolicy
+   * @throws IOException
+   * @see ResumableDownload
+   */
+  static void copy(URL in, File out, CopyProgressListener listener, ContentDigest.Hasher hasher,
+                   RetryPolicy retryPolicy) throws IOException {
+    if (HttpFetcher.isSupported(in)) {
+      new ResumableDownload(HttpFetcher.getDefault(), in, out, retryPolicy, listener, hasher).run();
+    } else if (in.getProtocol().equals("file")) {
+      try (FileChannel src = FileChannel.open(toFile(in).toPath(), StandardOpenOption.READ);
+           FileChannel dest = openForWriting(out)) {
+        Progress progress = new Progress(in, src.size(), listener);
+        if (hasher != null) {
+          copy(src, dest, progress, hasher);
+          return;
+        }
+        long position = 0;
+        long size = src.size();
+        while (position < size) {
+          long n = src.transferTo(position, Math.min(FILE_CHUNK_SIZE, size - position), dest);
+          if (n <= 0) {
+            break;
+          }
+          position += n;
+          progress.add(n);
+        }
+      }
+    } else {
+      URLConnection conn = in.openConnection();
+      try (ReadableByteChannel src = Channels.newChannel(conn.getInputStream());
+           FileChannel dest = openForWriting(out)) {
+        copy(src, dest, new Progress(in, conn.getContentLengthLong(), listener), hasher);
+      }
+    }
+  }
+
+  /**
+   * Copies the channel to the current position of the file.
+   *
+   * @return the number of bytes copied
+   */
+  static long copy(ReadableByteChannel src, FileChannel dest, Progress progress, ContentDigest.Hasher hasher) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+    long count = 0;
+    int n;
+    while ((n = src.read(buffer)) != -1) {
+      buffer.flip();
+      if (hasher != null) {
+        hasher.add(buffer.duplicate());
+      }
+      while (buffer.hasRemaining()) {
+        dest.write(buffer);
+      }
+      buffer.clear();
+      count += n;
+      progress.add(n);
+    }
+    return count;
+  }
+
+  private static FileChannel openForWriting(File file) throws IOException {
+    return FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  /**
+   * Counts the copied bytes and notifies the listener. Also checks for
+   * interruption, since not all channels are interruptible.
+   */
+  static final class Progress {
+    private final URL url;
+    private long total;
+    private final CopyProgressListener listener;
+    private final long start = System.nanoTime();
+    private long bytes;
+
+    Progress(URL url, long total, CopyProgressListener listener) {
+      this.url = url;
+      this.total = total;
+      this.listener = listener;
+    }
+
+    void add(long n) throws InterruptedIOException {
+      bytes += n;
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedIOException("Copying " + url + " has been interrupted");
+      }
+      if (listener != null) {
+        long nanos = Math.max(1, System.nanoTime() - start);
+        listener.progress(bytes, total, (long) (bytes * 1e9 / nanos));
+      }
+    }
+
+    void setTotal(long total) {
+      this.total = total;
+    }
+
+    /**
+     * Starts counting from zero again, if the copy has to start over.
+     */
+    void reset() {
+      bytes = 0;
+    }
+  }
+
+  /**
+   * Guesses the mime type from the first bytes of the stream. Only a few
+   * image formats are recognized. The stream must support mark and reset.
+   *
+   * @param in
+   * @return the mime type or {@code null} if it is not recognized
+   * @throws IOException
+   */
+  public static String sniffMimeType(InputStream in) throws IOException {
+    byte[] head = new byte[12];
+    in.mark(head.length);
+    int n = 0;
+    try {
+      int r;
+      while (n < head.length && (r = in.read(head, n, head.length - n)) != -1) {
+        n += r;
+      }
+    } finally {
+      in.reset();
+    }
+    if (n >= 3 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xd8 && (head[2] & 0xff) == 0xff) {
+      return "image/jpeg";
+    }
+    if (n >= 8 && (head[0] & 0xff) == 0x89 && startsWith(head, 1, "PNG\r\n")) {
+      return "image/png";
+    }
+    if (n >= 6 && (startsWith(head, 0, "GIF87a") || startsWith(head, 0, "GIF89a"))) {
+      return "image/gif";
+    }
+    if (n >= 4 && (startsWith(head, 0, "II*\u0000") || startsWith(head, 0, "MM\u0000*"))) {
+      return "image/tiff";
+    }
+    if (n >= 12 && startsWith(head, 0, "RIFF") && startsWith(head, 8, "WEBP")) {
+      return "image/webp";
+    }
+    if (n >= 2 && startsWith(head, 0, "BM")) {
+      return "image/bmp";
+    }
+    return null;
+  }
+
+  private static boolean startsWith(byte[] data, int offset, String magic) {
+    for (int i = 0; i < magic.length(); i++) {
+      if (data[offset + i] != (byte) magic.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Creates a factory for daemon threads whose names start with the
+   * given prefix.
+   *
+   * @param prefix
+   * @return
+   */
+  public static ThreadFactory daemonThreadFactory(final String prefix) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  /**
+   * Whether both files exist and have the same content. The files are
+   * compared byte by byte.
+   *
+   * @param file1
+   * @param file2
+   * @return
+   * @throws IOException
+   */
+  static boolean sameContent(File file1, File file2) throws IOException {
+    if (file1 == null || file2 == null || !file1.isFile() || !file2.isFile()) {
+      return false;
+    }
+    if (file1.getCanonicalFile().equals(file2.getCanonicalFile())) {
+      return true;
+    }
+    if (file1.length() != file2.length()) {
+      return false;
+    }
+    try (FileChannel ch1 = FileChannel.open(file1.toPath(), StandardOpenOption.READ);
+         FileChannel ch2 = FileChannel.open(file2.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buf1 = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+      ByteBuffer buf2 = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+      while (true) {
+        int n1 = fill(ch1, buf1);
+        int n2 = fill(ch2, buf2);
+        if (n1 != n2 || !buf1.equals(buf2)) {
+          return false;
+        }
+        if (n1 < STREAM_BUFFER_SIZE) {
+          return true;
+        }
+        buf1.clear();
+        buf2.clear();
+      }
+    }
+  }
+
+  /**
+   * Reads from the channel until the buffer is full or the end is reached,
+   * and flips the buffer.
+   */
+  private static int fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+      //read on
+    }
+    buffer.flip();
+    return buffer.remaining();
+  }
+
+  /**
+   * Cancels the given step if the result completes exceptionally, for
+   * example because it is cancelled or timed out. A future returned by
+   * {@code thenCompose} and the like does not pass this back to the futures
+   * it was composed of, so their tasks would keep running otherwise.
+   *
+   * @param result
+   * @param step
+   */
+  static void cancelWith(CompletableFuture<?> result, final Future<?> step) {
+    result.whenComplete(new BiConsumer<Object, Throwable>() {
+      @Override
+      public void accept(Object value, Throwable throwable) {
+        if (throwable != null) {
+          step.cancel(true);
+        }
+      }
+    });
+  }
+
+  /**
+   * Completes the given future with the result of the stage.
+   *
+   * @param future
+   * @param stage
+   * @param <T>
+   */
+  static <T> void completeWith(final CompletableFuture<T> future, CompletionStage<? extends T> stage) {
+    stage.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T value, Throwable throwable) {
+        if (throwable != null) {
+          future.completeExceptionally(unwrap(throwable));
+        } else {
+          future.complete(value);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the cause of a {@link CompletionException}, which dependent
+   * stages wrap the failure of a stage in.
+   *
+   * @param throwable
+   * @return
+   */
+  static Throwable unwrap(Throwable throwable) {
+    if (throwable instanceof CompletionException && throwable.getCause() != null) {
+      return throwable.getCause();
+    }
+    return throwable;
   }
 
   public static boolean isMimeUtilAvailable() {
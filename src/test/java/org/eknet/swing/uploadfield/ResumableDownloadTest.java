@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011 Eike Kettner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eknet.swing.uploadfield;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Downloads from a local http server that drops the first connections
+ * half way through and checks that the file is complete afterwards.
+ *
+ * @author <a href="mailto:eike.kettner@gmail.com">Eike Kettner</a>
+ * @since 17.10.26 22:10
+ */
+public class ResumableDownloadTest {
+
+  private static final String ETAG = "\"v1\"";
+
+  public static void main(String[] args) throws Exception {
+    byte[] data = new byte[3 * 1024 * 1024];
+    new Random(42).nextBytes(data);
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    FlakyHandler ranges = new FlakyHandler(data, true, 2);
+    FlakyHandler noRanges = new FlakyHandler(data, false, 2);
+    server.createContext("/ranges", ranges);
+    server.createContext("/noranges", noRanges);
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.getAddress().getPort();
+      download(new URL(base + "/ranges"), data, ranges);
+      download(new URL(base + "/noranges"), data, noRanges);
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private static void download(URL url, byte[] expected, FlakyHandler handler) throws IOException {
+    File file = File.createTempFile("resume-test", ".bin");
+    try {
+      ContentDigest.Hasher hasher = ContentDigest.SHA256.newHasher();
+      Utils.copy(url, file, null, hasher, new RetryPolicy(3, 100, 1000));
+      byte[] actual = Files.readAllBytes(file.toPath());
+      File reference = File.createTempFile("resume-test", ".bin");
+      Files.write(reference.toPath(), expected);
+      ContentHash hash = ContentHash.of(reference, ContentDigest.SHA256);
+      reference.delete();
+      boolean ok = Arrays.equals(expected, actual) && hash.equals(hasher.finish());
+      System.out.println(url + ": " + handler.requests.get() + " requests, "
+              + handler.sent.get() + " bytes sent, " + (ok ? "OK" : "FAILED"));
+      if (!ok) {
+        throw new AssertionError("Downloaded content differs from " + url);
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Serves the data and closes the first connections after half of the
+   * requested bytes.
+   */
+  private static class FlakyHandler implements HttpHandler {
+    private final byte[] data;
+    private final boolean acceptRanges;
+    private final int failures;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger sent = new AtomicInteger();
+
+    FlakyHandler(byte[] data, boolean acceptRanges, int failures) {
+      this.data = data;
+      this.acceptRanges = acceptRanges;
+      this.failures = failures;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      int request = requests.incrementAndGet();
+      int start = 0;
+      String range = exchange.getRequestHeaders().getFirst("Range");
+      String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+      exchange.getResponseHeaders().set("ETag", ETAG);
+      if (acceptRanges && range != null && (ifRange == null || ETAG.equals(ifRange))) {
+        start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+        exchange.getResponseHeaders().set("Content-Range",
+                "bytes " + start + "-" + (data.length - 1) + "/" + data.length);
+        exchange.sendResponseHeaders(206, data.length - start);
+      } else {
+        exchange.sendResponseHeaders(200, data.length);
+      }
+      int length = data.length - start;
+      if (request <= failures) {
+        length = length / 2;
+      }
+      OutputStream out = exchange.getResponseBody();
+      try {
+        out.write(data, start, length);
+        out.flush();
+        sent.addAndGet(length);
+      } finally {
+        //closing before all announced bytes are written drops the connection
+        exchange.close();
+      }
+    }
+  }
+}